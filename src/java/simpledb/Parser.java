@@ -17,6 +17,7 @@ import simpledb.storage.TupleDesc;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionId;
 
+import javax.management.JMException;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
@@ -601,7 +602,22 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
+    /**
+     * System property naming a file the buffer pool's resident pages are
+     * saved to at shutdown and read back from at startup.
+     */
+    static final String SNAPSHOT_PROPERTY = "simpledb.bufferPoolSnapshot";
+
     protected void shutdown() {
+        String snapshot = System.getProperty(SNAPSHOT_PROPERTY);
+        if (snapshot != null) {
+            try {
+                Database.getBufferPool().saveSnapshot(new File(snapshot));
+            } catch (IOException e) {
+                System.out.println("Unable to save buffer pool snapshot " + snapshot);
+                e.printStackTrace();
+            }
+        }
         System.out.println("Bye");
     }
 
@@ -612,6 +628,18 @@ public class Parser {
         Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
 
+        try {
+            Database.getBufferPool().registerMBean();
+        } catch (JMException e) {
+            System.out.println("Unable to register buffer pool statistics: " + e.getMessage());
+        }
+
+        String snapshot = System.getProperty(SNAPSHOT_PROPERTY);
+        if (snapshot != null) {
+            int pages = Database.getBufferPool().warmUp(new File(snapshot));
+            System.out.println("Warming up the buffer pool with " + pages + " pages");
+        }
+
         String queryFile = null;
 
         if (argv.length > 1) {
@@ -53,6 +53,21 @@ public class Catalog {
         tableIntegerMap.put(table.name, file.getId());
     }
 
+    /**
+     * Add a new table to the catalog whose pages are cached in a sub-pool of
+     * the BufferPool, e.g. to give a hot table memory of its own that scans
+     * of other tables cannot take away.
+     *
+     * @param bufferPool the name of the sub-pool, or null for the default
+     *                   pool; a name the BufferPool does not know also means
+     *                   the default pool
+     * @see simpledb.storage.BufferPool#addSubPool
+     */
+    public void addTable(DbFile file, String name, String pkeyField, String bufferPool) {
+        addTable(file, name, pkeyField);
+        tableMap.get(file.getId()).bufferPool = bufferPool;
+    }
+
     public void addTable(DbFile file, String name) {
         addTable(file, name, "");
     }
@@ -114,6 +129,15 @@ public class Catalog {
         return tableMap.get(tableid).pkeyField;
     }
 
+    /**
+     * Returns the name of the BufferPool sub-pool the table was added with,
+     * or null if it uses the default pool or does not exist.
+     */
+    public String getBufferPoolName(int tableid) {
+        Table table = tableMap.get(tableid);
+        return table == null ? null : table.bufferPool;
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // TODO: some code goes here
         return tableMap.keySet().iterator();
@@ -125,12 +149,13 @@ public class Catalog {
     }
 
     /**
-     * Delete all tables from the catalog
+     * Delete all tables from the catalog and close their open files
      */
     public void clear() {
         // TODO: some code goes here
         tableMap.clear();
         tableIntegerMap.clear();
+        Database.getFileChannelPool().closeAll();
     }
 
     /**
@@ -145,7 +170,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
 
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [slotted]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -176,7 +201,16 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                // an optional annotation after the field list selects the page format
+                String format = line.substring(line.indexOf(")") + 1).trim();
+                HeapFile.PageFormat pageFormat = HeapFile.PageFormat.FIXED;
+                if (format.equalsIgnoreCase("slotted"))
+                    pageFormat = HeapFile.PageFormat.SLOTTED;
+                else if (!format.isEmpty()) {
+                    System.out.println("Unknown annotation " + format);
+                    System.exit(0);
+                }
+                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t, pageFormat);
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -1,6 +1,7 @@
 package simpledb.common;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.FileChannelPool;
 import simpledb.storage.LogFile;
 
 import java.io.File;
@@ -21,13 +22,16 @@ public class Database {
     private static final AtomicReference<Database> _instance = new AtomicReference<>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
+    private final FileChannelPool _channelpool;
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
 
     private Database() {
         _catalog = new Catalog();
-        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _channelpool = new FileChannelPool();
+        // the pool can be resized later with BufferPool.setNumPages
+        _bufferpool = new BufferPool(Integer.getInteger("simpledb.bufferPoolPages", BufferPool.DEFAULT_PAGES));
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -60,6 +64,13 @@ public class Database {
         return _instance.get()._catalog;
     }
 
+    /**
+     * Return the pool of open file channels of the static Database instance
+     */
+    public static FileChannelPool getFileChannelPool() {
+        return _instance.get()._channelpool;
+    }
+
     /**
      * Method used for testing -- create a new instance of the buffer pool and
      * return it
@@ -79,7 +90,7 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        _instance.getAndSet(new Database())._channelpool.closeAll();
     }
 
 }
@@ -1,9 +1,13 @@
 package simpledb.common;
 
+import simpledb.transaction.TransactionAbortedException;
+
 /**
- * Exception that is thrown when a deadlock occurs.
+ * Exception that is thrown when a deadlock occurs, or would occur if the
+ * transaction it is thrown to waited. That transaction has been chosen to
+ * abort so that the others can proceed.
  */
-public class DeadlockException extends Exception {
+public class DeadlockException extends TransactionAbortedException {
     private static final long serialVersionUID = 1L;
 
     public DeadlockException() {
@@ -10,6 +10,12 @@ public class Table {
 
     String pkeyField;
 
+    /**
+     * Name of the BufferPool sub-pool that caches the table's pages, or null
+     * for the default pool.
+     */
+    String bufferPool;
+
     public Table(DbFile file, String name, String pkeyField) {
         this.file = file;
         this.name = name;
@@ -7,6 +7,8 @@ import simpledb.storage.StringField;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 /**
@@ -30,6 +32,30 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new IntField(buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public int getMinCompactLen() {
+            return 4;
+        }
+
+        @Override
+        public Field parseCompact(ByteBuffer buf) throws ParseException {
+            return parse(buf);
+        }
+
+        @Override
+        public int skipCompact(ByteBuffer buf) {
+            return 4;
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -48,6 +74,42 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                int start = buf.position();
+                int strLen = buf.getInt();
+                byte[] bs = new byte[strLen];
+                buf.get(bs);
+                buf.position(start + getLen());
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public int getMinCompactLen() {
+            return 4;
+        }
+
+        @Override
+        public Field parseCompact(ByteBuffer buf) throws ParseException {
+            try {
+                int strLen = buf.getInt();
+                byte[] bs = new byte[strLen];
+                buf.get(bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (BufferUnderflowException | NegativeArraySizeException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public int skipCompact(ByteBuffer buf) {
+            return 4 + buf.getInt(buf.position());
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -66,4 +128,38 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * @param buf The buffer to read from, starting at its current position
+     * @return a Field object of the same type as this object that has contents
+     *         read from the specified buffer. The position of buf is advanced
+     *         by {@link #getLen()} bytes.
+     * @throws ParseException if the data read from the buffer is not
+     *                        of the appropriate type.
+     */
+    public abstract Field parse(ByteBuffer buf) throws ParseException;
+
+    /**
+     * @return the smallest number of bytes a field of this type takes in the
+     *         compact, variable-length format used by slotted pages.
+     * @see Field#serializeCompact
+     */
+    public abstract int getMinCompactLen();
+
+    /**
+     * @param buf The buffer to read from, starting at its current position
+     * @return a Field object of the same type as this object that has contents
+     *         read from the specified buffer in the compact format. The
+     *         position of buf is advanced past the field.
+     * @throws ParseException if the data read from the buffer is not
+     *                        of the appropriate type.
+     */
+    public abstract Field parseCompact(ByteBuffer buf) throws ParseException;
+
+    /**
+     * @param buf A buffer positioned at a field of this type in the compact
+     *            format; its position is not changed
+     * @return the number of bytes the field takes
+     */
+    public abstract int skipCompact(ByteBuffer buf);
+
 }
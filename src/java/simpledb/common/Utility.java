@@ -1,6 +1,9 @@
 package simpledb.common;
 
+import simpledb.execution.OpIterator;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -157,6 +160,30 @@ public class Utility {
         return openHeapFile(cols, colPrefix, f, td);
     }
 
+    /**
+     * Creates a table from the tuples produced by source: the file at f is
+     * overwritten, the tuples are written to it with
+     * {@link HeapFile#bulkLoad(OpIterator)}, and the table is added to the
+     * catalog under the specified name with freshly computed statistics.
+     *
+     * @param f      location of the file storing the table.
+     * @param name   the name of the new table.
+     * @param td     the TupleDesc of the table.
+     * @param source the tuples to load.
+     * @return the loaded table.
+     */
+    public static HeapFile loadHeapFile(File f, String name, TupleDesc td, OpIterator source)
+            throws DbException, IOException, TransactionAbortedException {
+        FileOutputStream fos = new FileOutputStream(f);
+        fos.close();
+
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, name);
+        hf.bulkLoad(source);
+        TableStats.computeStatistics(hf.getId());
+        return hf;
+    }
+
     public static String listToString(List<Integer> list) {
         StringBuilder out = new StringBuilder();
         for (Integer i : list) {
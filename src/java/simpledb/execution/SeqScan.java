@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
@@ -29,6 +30,8 @@ public class SeqScan implements OpIterator {
 
     private String tableAlias;
 
+    private Predicate predicate;
+
     private DbFileIterator dbFileIterator;
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -87,9 +90,35 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Pushes a predicate down into the scan. When the table is a HeapFile the
+     * predicate is checked against the raw page data, and tuples that fail it
+     * are skipped without being decoded. The predicate is only a hint: other
+     * files may still return every tuple, so it must also be applied by a
+     * {@link Filter} above this operator. Takes effect on the next open().
+     *
+     * @param p the predicate to push down, or null to scan every tuple
+     */
+    public void setPredicate(Predicate p) {
+        this.predicate = p;
+    }
+
+    /**
+     * @return the predicate pushed down into this scan, or null
+     */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // TODO: some code goes here
-        dbFileIterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableid);
+        if(predicate != null && dbFile instanceof HeapFile) {
+            dbFileIterator = ((HeapFile) dbFile).iterator(tid, predicate);
+        }
+        else {
+            dbFileIterator = dbFile.iterator(tid);
+        }
         dbFileIterator.open();
     }
 
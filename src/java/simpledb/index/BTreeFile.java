@@ -11,6 +11,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -33,6 +34,13 @@ public class BTreeFile implements DbFile {
     private final int tableid;
     private final int keyField;
 
+    /**
+     * False if a subclass overrides readPage or writePage, in which case
+     * readPages and writePages must still go through the override for every
+     * page.
+     */
+    private final boolean vectoredIO;
+
     /**
      * Constructs a B+ tree file backed by the specified file.
      *
@@ -46,6 +54,16 @@ public class BTreeFile implements DbFile {
         this.tableid = f.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
+        this.vectoredIO = !overridesPageIO();
+    }
+
+    private boolean overridesPageIO() {
+        try {
+            return getClass().getMethod("readPage", PageId.class).getDeclaringClass() != BTreeFile.class
+                    || getClass().getMethod("writePage", Page.class).getDeclaringClass() != BTreeFile.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
     }
 
     /**
@@ -87,10 +105,10 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+                int retval = Database.getFileChannelPool().read(f, ByteBuffer.wrap(pageBuf), 0);
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
@@ -102,12 +120,7 @@ public class BTreeFile implements DbFile {
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+                int retval = Database.getFileChannelPool().read(f, ByteBuffer.wrap(pageBuf), pageOffset(id.getPageNumber()));
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
@@ -116,19 +129,71 @@ public class BTreeFile implements DbFile {
                             + BufferPool.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
+                return createPage(id, pageBuf);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
+    }
+
+    /**
+     * Read a run of consecutive pages from disk with a single scattering read.
+     * This should not be called directly but should be called from the
+     * BufferPool.
+     *
+     * @param pids - the ids of the pages to read: consecutive page numbers of
+     *             this file in ascending order, not including the root pointer
+     * @return the pages constructed from the contents on disk
+     */
+    public List<Page> readPages(List<PageId> pids) {
+        if (!vectoredIO || pids.size() < 2) {
+            return DbFile.super.readPages(pids);
+        }
+        int first = pids.get(0).getPageNumber();
+        for (int i = 0; i < pids.size(); i++) {
+            BTreePageId id = (BTreePageId) pids.get(i);
+            if (id.getTableId() != tableid || id.pgcateg() == BTreePageId.ROOT_PTR
+                    || id.getPageNumber() != first + i) {
+                throw new IllegalArgumentException("pages to read must be consecutive non-root-pointer pages of table "
+                        + tableid);
+            }
+        }
+
+        ByteBuffer[] buffers = new ByteBuffer[pids.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.allocate(BufferPool.getPageSize());
+        }
+        try {
+            long retval = Database.getFileChannelPool().read(f, buffers, pageOffset(first));
+            if (retval == -1) {
+                throw new IllegalArgumentException("Read past end of table");
+            }
+            if (retval < (long) buffers.length * BufferPool.getPageSize()) {
+                throw new IllegalArgumentException("Unable to read "
+                        + buffers.length * BufferPool.getPageSize() + " bytes from BTreeFile");
+            }
+            Debug.log(1, "BTreeFile.readPages: read pages %d-%d", first, first + buffers.length - 1);
+            List<Page> pages = new ArrayList<>(buffers.length);
+            for (int i = 0; i < buffers.length; i++) {
+                pages.add(createPage((BTreePageId) pids.get(i), buffers[i].array()));
+            }
+            return pages;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Construct an internal, leaf or header page of the category given by its id
+     */
+    private Page createPage(BTreePageId id, byte[] pageBuf) throws IOException {
+        if (id.pgcateg() == BTreePageId.INTERNAL) {
+            return new BTreeInternalPage(id, pageBuf, keyField);
+        } else if (id.pgcateg() == BTreePageId.LEAF) {
+            return new BTreeLeafPage(id, pageBuf, keyField);
+        } else { // id.pgcateg() == BTreePageId.HEADER
+            return new BTreeHeaderPage(id, pageBuf);
+        }
     }
 
     /**
@@ -140,16 +205,60 @@ public class BTreeFile implements DbFile {
     public void writePage(Page page) throws IOException {
         BTreePageId id = (BTreePageId) page.getId();
 
-        byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
+        ByteBuffer data = page.getPageBuffer();
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            Database.getFileChannelPool().write(f, data, 0);
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            Database.getFileChannelPool().write(f, data, pageOffset(id.getPageNumber()));
+        }
+    }
+
+    /**
+     * Write a set of pages to disk, gathering runs of adjacent pages into
+     * single writes, and force the file to stable storage. This should not be
+     * called directly but should be called from the BufferPool when pages are
+     * flushed to disk
+     *
+     * @param pages - the pages to write to disk
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        if (!vectoredIO) {
+            DbFile.super.writePages(pages);
+            return;
+        }
+        List<Page> sorted = new ArrayList<>();
+        for (Page page : pages) {
+            if (((BTreePageId) page.getId()).pgcateg() == BTreePageId.ROOT_PTR) {
+                Database.getFileChannelPool().write(f, page.getPageBuffer(), 0);
+            } else {
+                sorted.add(page);
+            }
         }
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        int start = 0;
+        while (start < sorted.size()) {
+            // gather a run of adjacent pages into a single write
+            int end = start + 1;
+            while (end < sorted.size()
+                    && sorted.get(end).getId().getPageNumber() == sorted.get(end - 1).getId().getPageNumber() + 1) {
+                end++;
+            }
+            ByteBuffer[] buffers = new ByteBuffer[end - start];
+            for (int i = start; i < end; i++) {
+                buffers[i - start] = sorted.get(i).getPageBuffer();
+            }
+            Database.getFileChannelPool().write(f, buffers, pageOffset(sorted.get(start).getId().getPageNumber()));
+            start = end;
+        }
+        Database.getFileChannelPool().force(f);
+    }
+
+    /**
+     * Returns the offset into the file of the specified non-root-pointer page.
+     * Page numbers start at 1, right after the root pointer page.
+     */
+    private static long pageOffset(int pageNo) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
     }
 
     /**
@@ -804,13 +913,10 @@ public class BTreeFile implements DbFile {
         synchronized (this) {
             if (f.length() == 0) {
                 // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
                 byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
+                Database.getFileChannelPool().write(f, ByteBuffer.wrap(emptyRootPtrData), 0);
+                Database.getFileChannelPool().write(f, ByteBuffer.wrap(emptyLeafData), emptyRootPtrData.length);
             }
         }
 
@@ -864,11 +970,9 @@ public class BTreeFile implements DbFile {
         if (headerId == null) {
             synchronized (this) {
                 // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
+                FileChannelPool channelPool = Database.getFileChannelPool();
                 byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
+                channelPool.write(f, ByteBuffer.wrap(emptyData), channelPool.size(f));
                 emptyPageNo = numPages();
             }
         }
@@ -898,10 +1002,7 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        Database.getFileChannelPool().write(f, ByteBuffer.wrap(BTreePage.createEmptyPageData()), pageOffset(emptyPageNo));
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool().removePage(newPageId);
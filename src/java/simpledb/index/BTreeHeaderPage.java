@@ -22,6 +22,7 @@ import java.util.Arrays;
 public class BTreeHeaderPage implements Page {
     private volatile boolean dirty = false;
     private volatile TransactionId dirtier = null;
+    private long dirtyCount = 0;
 
     final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
@@ -259,9 +260,16 @@ public class BTreeHeaderPage implements Page {
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
      */
-    public void markDirty(boolean dirty, TransactionId tid) {
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
         this.dirty = dirty;
-        if (dirty) this.dirtier = tid;
+        if (dirty) {
+            this.dirtier = tid;
+            this.dirtyCount++;
+        }
+    }
+
+    public synchronized long getDirtyCount() {
+        return dirtyCount;
     }
 
     /**
@@ -19,6 +19,7 @@ import simpledb.transaction.TransactionId;
 public abstract class BTreePage implements Page {
     protected volatile boolean dirty = false;
     protected volatile TransactionId dirtier = null;
+    protected long dirtyCount = 0;
 
     protected final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
@@ -119,9 +120,16 @@ public abstract class BTreePage implements Page {
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
      */
-    public void markDirty(boolean dirty, TransactionId tid) {
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
         this.dirty = dirty;
-        if (dirty) this.dirtier = tid;
+        if (dirty) {
+            this.dirtier = tid;
+            this.dirtyCount++;
+        }
+    }
+
+    public synchronized long getDirtyCount() {
+        return dirtyCount;
     }
 
     /**
@@ -19,6 +19,7 @@ public class BTreeRootPtrPage implements Page {
 
     private boolean dirty = false;
     private TransactionId dirtier = null;
+    private long dirtyCount = 0;
 
     private final BTreePageId pid;
 
@@ -129,9 +130,16 @@ public class BTreeRootPtrPage implements Page {
         return new byte[PAGE_SIZE]; //all 0
     }
 
-    public void markDirty(boolean dirty, TransactionId tid) {
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
         this.dirty = dirty;
-        if (dirty) this.dirtier = tid;
+        if (dirty) {
+            this.dirtier = tid;
+            this.dirtyCount++;
+        }
+    }
+
+    public synchronized long getDirtyCount() {
+        return dirtyCount;
     }
 
     public TransactionId isDirty() {
@@ -360,6 +360,10 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
+            if (subplan instanceof SeqScan) {
+                // let the scan skip non-matching tuples without decoding them
+                ((SeqScan) subplan).setPredicate(p);
+            }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
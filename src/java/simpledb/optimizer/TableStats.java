@@ -59,6 +59,16 @@ public class TableStats {
         System.out.println("Done.");
     }
 
+    /**
+     * Computes the statistics of a single table, e.g. one that was just
+     * loaded, and registers them under the table's name.
+     *
+     * @param tableid the table to compute statistics for
+     */
+    public static void computeStatistics(int tableid) {
+        setTableStats(Database.getCatalog().getTableName(tableid), new TableStats(tableid, IOCOSTPERPAGE));
+    }
+
     /**
      * Number of bins for the histogram. Feel free to increase this value over
      * 100, though our tests assume that you have at least 100 bins in your
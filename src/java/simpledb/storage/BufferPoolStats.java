@@ -0,0 +1,372 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.index.BTreePageId;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BufferPoolStats counts what a BufferPool does, per table and per category
+ * of page: hits, misses, evictions, dirty pages written, bytes read and
+ * written, and a histogram of read latencies. Counting only adds to
+ * LongAdders, so it costs the threads using the pool little and does not
+ * make them contend.
+ * <p>
+ * The counters are read as {@link Counters} snapshots, for one table and
+ * category, one table, one category or the whole pool. The totals are also
+ * available over JMX once the pool is registered with
+ * {@link BufferPool#registerMBean}.
+ *
+ * @Threadsafe
+ */
+public class BufferPoolStats implements BufferPoolStatsMXBean {
+
+    /**
+     * The kinds of pages counted separately.
+     */
+    public enum Category {
+        HEAP, ROOT_PTR, INTERNAL, LEAF, HEADER, OTHER;
+
+        /**
+         * Returns the category of a page.
+         */
+        public static Category of(PageId pid) {
+            if(pid instanceof HeapPageId) {
+                return HEAP;
+            }
+            if(pid instanceof BTreePageId) {
+                switch(((BTreePageId) pid).pgcateg()) {
+                    case BTreePageId.ROOT_PTR:
+                        return ROOT_PTR;
+                    case BTreePageId.INTERNAL:
+                        return INTERNAL;
+                    case BTreePageId.LEAF:
+                        return LEAF;
+                    case BTreePageId.HEADER:
+                        return HEADER;
+                }
+            }
+            return OTHER;
+        }
+    }
+
+    /**
+     * Number of buckets of the read latency histogram. Bucket 0 counts reads
+     * that took less than a microsecond, bucket i reads that took from
+     * 2^(i-1) up to 2^i microseconds, and the last bucket everything slower.
+     */
+    public static final int LATENCY_BUCKETS = 22;
+
+    /**
+     * The counters of one table and category.
+     */
+    private static final class Adders {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+        final LongAdder dirtyWrites = new LongAdder();
+        final LongAdder bytesRead = new LongAdder();
+        final LongAdder bytesWritten = new LongAdder();
+        final LongAdder[] latency = new LongAdder[LATENCY_BUCKETS];
+
+        Adders() {
+            for(int i = 0; i < latency.length; i++) {
+                latency[i] = new LongAdder();
+            }
+        }
+    }
+
+    /**
+     * A snapshot of counters, summed over some tables and categories.
+     */
+    public static final class Counters {
+        private long hits;
+        private long misses;
+        private long evictions;
+        private long dirtyWrites;
+        private long bytesRead;
+        private long bytesWritten;
+        private final long[] latency = new long[LATENCY_BUCKETS];
+
+        private void add(Adders adders) {
+            hits += adders.hits.sum();
+            misses += adders.misses.sum();
+            evictions += adders.evictions.sum();
+            dirtyWrites += adders.dirtyWrites.sum();
+            bytesRead += adders.bytesRead.sum();
+            bytesWritten += adders.bytesWritten.sum();
+            for(int i = 0; i < latency.length; i++) {
+                latency[i] += adders.latency[i].sum();
+            }
+        }
+
+        /**
+         * Returns the number of getPage calls that found the page cached.
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Returns the number of getPage calls that did not find the page
+         * cached.
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Returns the fraction of getPage calls that found the page cached,
+         * or 0 if there were none.
+         */
+        public double getHitRatio() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+
+        /**
+         * Returns the number of pages the replacement policy evicted.
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * Returns the number of dirty pages written to disk.
+         */
+        public long getDirtyWrites() {
+            return dirtyWrites;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * Returns the read latency histogram; see {@link #LATENCY_BUCKETS}.
+         * A read of several adjacent pages in one call counts once.
+         */
+        public long[] getReadLatencyHistogram() {
+            return latency.clone();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d hitRatio=%.3f evictions=%d dirtyWrites=%d bytesRead=%d bytesWritten=%d",
+                    hits, misses, getHitRatio(), evictions, dirtyWrites, bytesRead, bytesWritten);
+        }
+    }
+
+    private final BufferPool bufferPool;
+
+    /**
+     * The counters of every table, by category.
+     */
+    private final ConcurrentMap<Integer, Adders[]> tables;
+
+    BufferPoolStats(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.tables = new ConcurrentHashMap<>();
+    }
+
+    private Adders adders(PageId pid) {
+        Adders[] categories = tables.get(pid.getTableId());
+        if(categories == null) {
+            categories = tables.computeIfAbsent(pid.getTableId(), t -> {
+                Adders[] a = new Adders[Category.values().length];
+                for(int i = 0; i < a.length; i++) {
+                    a[i] = new Adders();
+                }
+                return a;
+            });
+        }
+        return categories[Category.of(pid).ordinal()];
+    }
+
+    void recordHit(PageId pid) {
+        adders(pid).hits.increment();
+    }
+
+    void recordMiss(PageId pid) {
+        adders(pid).misses.increment();
+    }
+
+    void recordEviction(PageId pid) {
+        adders(pid).evictions.increment();
+    }
+
+    void recordWrite(PageId pid, int bytes) {
+        Adders adders = adders(pid);
+        adders.dirtyWrites.increment();
+        adders.bytesWritten.add(bytes);
+    }
+
+    /**
+     * Records a read of one or more adjacent pages, the first of which is
+     * pid, that took the specified time.
+     */
+    void recordRead(PageId pid, int bytes, long nanos) {
+        Adders adders = adders(pid);
+        adders.bytesRead.add(bytes);
+        adders.latency[bucket(nanos)].increment();
+    }
+
+    static int bucket(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Returns the counters of the pages of one category of a table.
+     */
+    public Counters get(int tableId, Category category) {
+        Counters counters = new Counters();
+        Adders[] categories = tables.get(tableId);
+        if(categories != null) {
+            counters.add(categories[category.ordinal()]);
+        }
+        return counters;
+    }
+
+    /**
+     * Returns the counters of all pages of a table.
+     */
+    public Counters getTable(int tableId) {
+        Counters counters = new Counters();
+        Adders[] categories = tables.get(tableId);
+        if(categories != null) {
+            for(Adders adders : categories) {
+                counters.add(adders);
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Returns the counters of the pages of one category of all tables.
+     */
+    public Counters getCategory(Category category) {
+        Counters counters = new Counters();
+        for(Adders[] categories : tables.values()) {
+            counters.add(categories[category.ordinal()]);
+        }
+        return counters;
+    }
+
+    /**
+     * Returns the counters of the whole buffer pool.
+     */
+    public Counters getTotals() {
+        Counters counters = new Counters();
+        for(Adders[] categories : tables.values()) {
+            for(Adders adders : categories) {
+                counters.add(adders);
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Returns the ids of the tables that have counters.
+     */
+    public Set<Integer> getTableIds() {
+        return Collections.unmodifiableSet(new HashSet<>(tables.keySet()));
+    }
+
+    /**
+     * Sets every counter back to zero.
+     */
+    @Override
+    public void reset() {
+        tables.clear();
+    }
+
+    // BufferPoolStatsMXBean
+
+    @Override
+    public long getHits() {
+        return getTotals().getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return getTotals().getMisses();
+    }
+
+    @Override
+    public double getHitRatio() {
+        return getTotals().getHitRatio();
+    }
+
+    @Override
+    public long getEvictions() {
+        return getTotals().getEvictions();
+    }
+
+    @Override
+    public long getDirtyWrites() {
+        return getTotals().getDirtyWrites();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return getTotals().getBytesRead();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return getTotals().getBytesWritten();
+    }
+
+    @Override
+    public long[] getReadLatencyHistogram() {
+        return getTotals().getReadLatencyHistogram();
+    }
+
+    @Override
+    public int getNumPages() {
+        return bufferPool.getNumPages();
+    }
+
+    @Override
+    public int getUsedPages() {
+        return bufferPool.getUsedPages();
+    }
+
+    @Override
+    public Map<String, Double> getHitRatioByTable() {
+        Map<String, Double> ratios = new TreeMap<>();
+        for(int tableId : tables.keySet()) {
+            ratios.put(tableName(tableId), getTable(tableId).getHitRatio());
+        }
+        return ratios;
+    }
+
+    @Override
+    public Map<String, Double> getHitRatioByCategory() {
+        Map<String, Double> ratios = new TreeMap<>();
+        for(Category category : Category.values()) {
+            ratios.put(category.name(), getCategory(category).getHitRatio());
+        }
+        return ratios;
+    }
+
+    private static String tableName(int tableId) {
+        try {
+            return Database.getCatalog().getTableName(tableId);
+        } catch (RuntimeException e) {
+            // dropped from the catalog since
+            return String.valueOf(tableId);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb.storage;
+
+import java.util.Map;
+
+/**
+ * The management interface of a BufferPool's statistics, registered with
+ * {@link BufferPool#registerMBean}. Counters are totals over the whole pool
+ * unless stated otherwise.
+ *
+ * @see BufferPoolStats
+ */
+public interface BufferPoolStatsMXBean {
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getEvictions();
+
+    long getDirtyWrites();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    /**
+     * Returns the read latency histogram; see
+     * {@link BufferPoolStats#LATENCY_BUCKETS}.
+     */
+    long[] getReadLatencyHistogram();
+
+    /**
+     * Returns the capacity of the default pool.
+     */
+    int getNumPages();
+
+    /**
+     * Returns the number of pages cached in all sub-pools.
+     */
+    int getUsedPages();
+
+    /**
+     * Returns the hit ratio of every table, by table name.
+     */
+    Map<String, Double> getHitRatioByTable();
+
+    /**
+     * Returns the hit ratio of every category of page.
+     */
+    Map<String, Double> getHitRatioByCategory();
+
+    /**
+     * Sets every counter back to zero.
+     */
+    void reset();
+}
@@ -0,0 +1,275 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ClockCache approximates LRU with the CLOCK (second chance) algorithm. The
+ * cached pages sit in a fixed ring of frames, each with a reference bit. A
+ * hit only looks the page up in a concurrent map and sets its bit, without
+ * taking any lock, so reads never write to shared replacement state beyond
+ * that one flag. Only a miss takes the cache's monitor and sweeps the clock
+ * hand over the ring: a referenced page has its bit cleared and is passed
+ * over once, and the first clean, unreferenced page is replaced.
+ * <p>
+ * Pins are counted in the frames, so pinning a page does not lock either.
+ * The sweep claims a victim by swapping its pin count from 0 to -1, which a
+ * concurrent pin never gets past.
+ *
+ * @see BufferPool.ReplacementPolicy#CLOCK
+ */
+class ClockCache extends PageCache {
+
+    /**
+     * A page in its frame. A frame is never reused for another page: a new
+     * Frame is installed instead, so a lock-free reader that found a Frame
+     * always sees the page it looked up.
+     */
+    private static class Frame {
+        final PageId key;
+        final Page page;
+        final int slot;
+        /**
+         * Number of pins, or -1 once the frame has been chosen for eviction.
+         * Shared with the frame that replaces this one in the same slot.
+         */
+        final AtomicInteger pins;
+        volatile boolean referenced;
+
+        Frame(PageId key, Page page, int slot, AtomicInteger pins) {
+            this.key = key;
+            this.page = page;
+            this.slot = slot;
+            this.pins = pins;
+            this.referenced = true;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, Frame> map;
+
+    /**
+     * The ring of frames; null entries are free. It grows with the capacity
+     * but does not shrink with it, so frames keep their slots.
+     */
+    private Frame[] frames;
+
+    private int hand;
+
+    private int size;
+
+    ClockCache(int capacity) {
+        super(capacity);
+        map = new ConcurrentHashMap<>();
+        frames = new Frame[capacity];
+    }
+
+    @Override
+    Page get(PageId key) {
+        Frame frame = map.get(key);
+        if(frame == null) {
+            return null;
+        }
+        if(!frame.referenced) {
+            frame.referenced = true;
+        }
+        return frame.page;
+    }
+
+    @Override
+    boolean contains(PageId key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    synchronized void put(PageId key, Page value) throws DbException {
+        Frame old = map.get(key);
+        if(old != null) {
+            install(new Frame(key, value, old.slot, old.pins));
+            if(old.page != value) {
+                removed(key, old.page);
+            }
+            return;
+        }
+        int slot = findFrame();
+        if(slot < 0) {
+            throw new DbException("all " + capacity + " pages in the buffer pool are pinned or dirty");
+        }
+        install(new Frame(key, value, slot, new AtomicInteger()));
+    }
+
+    @Override
+    synchronized boolean offer(PageId key, Page value) {
+        if(map.containsKey(key)) {
+            return false;
+        }
+        int slot = findFrame();
+        if(slot < 0) {
+            return false;
+        }
+        Frame frame = new Frame(key, value, slot, new AtomicInteger());
+        // read-ahead pages have not been used yet
+        frame.referenced = false;
+        install(frame);
+        return true;
+    }
+
+    @Override
+    Page pin(PageId key) {
+        Frame frame = map.get(key);
+        if(frame == null) {
+            return null;
+        }
+        int n;
+        do {
+            n = frame.pins.get();
+            if(n < 0) {
+                // being evicted
+                return null;
+            }
+        } while(!frame.pins.compareAndSet(n, n + 1));
+        if(!frame.referenced) {
+            frame.referenced = true;
+        }
+        return frame.page;
+    }
+
+    @Override
+    void unpin(PageId key) {
+        Frame frame = map.get(key);
+        if(frame == null) {
+            return;
+        }
+        int n;
+        do {
+            n = frame.pins.get();
+            if(n <= 0) {
+                return;
+            }
+        } while(!frame.pins.compareAndSet(n, n - 1));
+    }
+
+    @Override
+    boolean isPinned(PageId key) {
+        Frame frame = map.get(key);
+        return frame != null && frame.pins.get() > 0;
+    }
+
+    @Override
+    synchronized void setCapacity(int capacity) {
+        super.setCapacity(capacity);
+        if(capacity > frames.length) {
+            frames = Arrays.copyOf(frames, capacity);
+        }
+    }
+
+    @Override
+    synchronized boolean evict() {
+        int slot = sweep();
+        if(slot < 0) {
+            return false;
+        }
+        // leave the frame free for the next page
+        hand = slot;
+        return true;
+    }
+
+    @Override
+    synchronized void removeByKey(PageId key) {
+        Frame frame = map.remove(key);
+        if(frame != null) {
+            frames[frame.slot] = null;
+            size--;
+            removed(key, frame.page);
+        }
+    }
+
+    @Override
+    synchronized int getSize() {
+        return size;
+    }
+
+    @Override
+    List<Page> getPages() {
+        List<Page> pages = new ArrayList<>();
+        for(Frame frame : map.values()) {
+            pages.add(frame.page);
+        }
+        return pages;
+    }
+
+    @Override
+    synchronized List<PageId> getKeys() {
+        // the hand reaches the frames just behind it last, and passes over
+        // referenced pages once
+        List<PageId> referenced = new ArrayList<>(size);
+        List<PageId> unreferenced = new ArrayList<>();
+        for(int i = 1; i <= frames.length; i++) {
+            Frame frame = frames[Math.floorMod(hand - i, frames.length)];
+            if(frame != null) {
+                (frame.referenced ? referenced : unreferenced).add(frame.key);
+            }
+        }
+        referenced.addAll(unreferenced);
+        return referenced;
+    }
+
+    private void install(Frame frame) {
+        if(frames[frame.slot] == null) {
+            size++;
+        }
+        frames[frame.slot] = frame;
+        map.put(frame.key, frame);
+    }
+
+    /**
+     * Sweeps the clock hand to a free frame, evicting the page in it if
+     * necessary.
+     *
+     * @return the free frame, or -1 if every page is pinned or dirty
+     */
+    private int findFrame() {
+        if(size >= capacity) {
+            return sweep();
+        }
+        for(int i = 0; i < frames.length; i++) {
+            int slot = (hand + i) % frames.length;
+            if(frames[slot] == null) {
+                return slot;
+            }
+        }
+        throw new IllegalStateException("no free frame in a cache that is not full");
+    }
+
+    /**
+     * Sweeps the clock hand to the next page that can be evicted, and evicts
+     * it.
+     *
+     * @return the frame that was freed, or -1 if every page is pinned or dirty
+     */
+    private int sweep() {
+        // two turns: the first may only clear reference bits
+        for(int i = 0; i < 2 * frames.length; i++) {
+            int slot = hand;
+            hand = (hand + 1) % frames.length;
+            Frame frame = frames[slot];
+            if(frame == null) {
+                continue;
+            }
+            if(frame.referenced) {
+                frame.referenced = false;
+            } else if(frame.page.isDirty() == null && frame.pins.compareAndSet(0, -1)) {
+                map.remove(frame.key);
+                frames[slot] = null;
+                size--;
+                evicted(frame.key, frame.page);
+                return slot;
+            }
+        }
+        return -1;
+    }
+}
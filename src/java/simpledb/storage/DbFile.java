@@ -6,6 +6,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -23,6 +25,63 @@ public interface DbFile {
      */
     Page readPage(PageId id);
 
+    /**
+     * Read a run of consecutive pages from disk. The default implementation
+     * reads them one at a time with {@link #readPage}; implementations should
+     * fetch the whole run with a single request where they can.
+     *
+     * @param ids the pages to read: consecutive page numbers of this file, in
+     *            ascending order
+     * @return the pages, in the same order as ids
+     * @throws IllegalArgumentException if a page does not exist in this file.
+     */
+    default List<Page> readPages(List<PageId> ids) {
+        List<Page> pages = new ArrayList<>(ids.size());
+        for (PageId id : ids) {
+            pages.add(readPage(id));
+        }
+        return pages;
+    }
+
+    /**
+     * Returns true if this file can read pages into buffers supplied by the
+     * caller with {@link #readPage(PageId, ByteBuffer)} and
+     * {@link #readPages(List, ByteBuffer[])}. The default is false.
+     */
+    default boolean readsIntoFrames() {
+        return false;
+    }
+
+    /**
+     * Read the specified page from disk into frame, a page-sized buffer the
+     * returned page then uses to store its contents, e.g. a frame of
+     * off-heap memory. The default implementation ignores frame and calls
+     * {@link #readPage(PageId)}; only call it if {@link #readsIntoFrames}.
+     *
+     * @param frame the buffer to read the page into, with position 0 and
+     *              limit the page size
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    default Page readPage(PageId id, ByteBuffer frame) {
+        return readPage(id);
+    }
+
+    /**
+     * Read a run of consecutive pages from disk into page-sized buffers
+     * supplied by the caller, like {@link #readPage(PageId, ByteBuffer)}.
+     * The default implementation ignores frames and calls
+     * {@link #readPages(List)}.
+     *
+     * @param ids    the pages to read: consecutive page numbers of this file,
+     *               in ascending order
+     * @param frames one buffer for each page
+     * @return the pages, in the same order as ids
+     * @throws IllegalArgumentException if a page does not exist in this file.
+     */
+    default List<Page> readPages(List<PageId> ids, ByteBuffer[] frames) {
+        return readPages(ids);
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -31,6 +90,21 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push the specified pages to disk and force them to stable storage. The
+     * default implementation writes them one at a time with
+     * {@link #writePage}; implementations should write runs of adjacent pages
+     * with a single request and force the file once at the end.
+     *
+     * @param pages The pages to write, in any order.
+     * @throws IOException if the write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
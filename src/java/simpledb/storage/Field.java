@@ -6,6 +6,7 @@ import simpledb.execution.Predicate;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -20,6 +21,30 @@ public interface Field extends Serializable {
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field to the specified buffer at its
+     * current position, in the same format as {@link #serialize(DataOutputStream)}.
+     * The position of buf is advanced by the length of the field's type.
+     *
+     * @param buf The buffer to write to.
+     */
+    void serialize(ByteBuffer buf);
+
+    /**
+     * Write this field to the specified buffer at its current position in the
+     * compact, variable-length format used by slotted pages, which leaves out
+     * any padding the fixed-length format has.
+     *
+     * @param buf The buffer to write to.
+     * @see Type#parseCompact
+     */
+    void serializeCompact(ByteBuffer buf);
+
+    /**
+     * @return the number of bytes {@link #serializeCompact} writes
+     */
+    int getCompactLen();
+
     /**
      * Compare the value of this field object to the passed in value.
      *
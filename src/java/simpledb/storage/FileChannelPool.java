@@ -0,0 +1,244 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FileChannelPool keeps a single open FileChannel for every file backing a
+ * DbFile, so that page reads and writes do not have to open, seek and close
+ * the file on every access.
+ * <p>
+ * Single-buffer I/O goes through positional reads and writes, and scattering
+ * and gathering I/O holds the channel's monitor while it uses the channel
+ * position, so channels
+ * may be shared freely between threads. Channels are opened
+ * lazily on first use and closed by {@link #closeAll}, which is called when
+ * the catalog is cleared or the database is reset.
+ *
+ * @Threadsafe
+ */
+public class FileChannelPool {
+
+    private final Map<File, FileChannel> channels;
+
+    /**
+     * Creates an empty pool; channels are opened on demand.
+     */
+    public FileChannelPool() {
+        channels = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the open channel for the specified file, opening it (and
+     * creating the file if it does not exist yet) if necessary.
+     *
+     * @param f the file to get a channel for
+     * @return an open, readable and writable channel on f
+     * @throws IOException if the file cannot be opened
+     */
+    public FileChannel getChannel(File f) throws IOException {
+        File key = f.getAbsoluteFile();
+        FileChannel fc = channels.get(key);
+        if (fc != null && fc.isOpen()) {
+            return fc;
+        }
+        try {
+            return channels.compute(key, (k, old) -> {
+                if (old != null && old.isOpen()) {
+                    return old;
+                }
+                try {
+                    return FileChannel.open(k.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Reads bytes from the file at the given position until dst is full or
+     * the end of the file is reached.
+     *
+     * @param f        the file to read from
+     * @param dst      the buffer to fill
+     * @param position the file offset of the first byte to read
+     * @return the number of bytes read, or -1 if position is past the end of
+     *         the file
+     */
+    public int read(File f, ByteBuffer dst, long position) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n;
+            FileChannel fc = getChannel(f);
+            try {
+                n = fc.read(dst, position + total);
+            } catch (ClosedChannelException e) {
+                retire(f, fc, e);
+                continue;
+            }
+            if (n < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Reads consecutive bytes from the file at the given position into a
+     * sequence of buffers with scattering reads, filling each buffer before
+     * moving on to the next, until all are full or the end of the file is
+     * reached.
+     *
+     * @param f        the file to read from
+     * @param dsts     the buffers to fill
+     * @param position the file offset of the first byte to read
+     * @return the number of bytes read, or -1 if position is past the end of
+     *         the file
+     */
+    public long read(File f, ByteBuffer[] dsts, long position) throws IOException {
+        long total = 0;
+        while (dsts.length > 0 && dsts[dsts.length - 1].hasRemaining()) {
+            long n;
+            FileChannel fc = getChannel(f);
+            try {
+                // scattering reads use the channel position, which is shared
+                synchronized (fc) {
+                    fc.position(position + total);
+                    n = fc.read(dsts);
+                }
+            } catch (ClosedChannelException e) {
+                retire(f, fc, e);
+                continue;
+            }
+            if (n < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Writes all remaining bytes of src to the file at the given position.
+     *
+     * @param f        the file to write to
+     * @param src      the bytes to write
+     * @param position the file offset of the first byte to write
+     * @return the number of bytes written
+     */
+    public int write(File f, ByteBuffer src, long position) throws IOException {
+        int total = 0;
+        while (src.hasRemaining()) {
+            FileChannel fc = getChannel(f);
+            try {
+                total += fc.write(src, position + total);
+            } catch (ClosedChannelException e) {
+                retire(f, fc, e);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Writes all remaining bytes of a sequence of buffers to consecutive
+     * positions of the file with gathering writes.
+     *
+     * @param f        the file to write to
+     * @param srcs     the buffers to write, in file order
+     * @param position the file offset of the first byte to write
+     * @return the number of bytes written
+     */
+    public long write(File f, ByteBuffer[] srcs, long position) throws IOException {
+        long total = 0;
+        while (srcs.length > 0 && srcs[srcs.length - 1].hasRemaining()) {
+            FileChannel fc = getChannel(f);
+            try {
+                // gathering writes use the channel position, which is shared
+                synchronized (fc) {
+                    fc.position(position + total);
+                    total += fc.write(srcs);
+                }
+            } catch (ClosedChannelException e) {
+                retire(f, fc, e);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Forces all writes to the file out to stable storage.
+     */
+    public void force(File f) throws IOException {
+        while (true) {
+            FileChannel fc = getChannel(f);
+            try {
+                fc.force(false);
+                return;
+            } catch (ClosedChannelException e) {
+                retire(f, fc, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the current size of the file in bytes.
+     */
+    public long size(File f) throws IOException {
+        while (true) {
+            FileChannel fc = getChannel(f);
+            try {
+                return fc.size();
+            } catch (ClosedChannelException e) {
+                retire(f, fc, e);
+            }
+        }
+    }
+
+    /**
+     * Closes the channel on the specified file, if one is open.
+     */
+    public void close(File f) throws IOException {
+        FileChannel fc = channels.remove(f.getAbsoluteFile());
+        if (fc != null) {
+            fc.close();
+        }
+    }
+
+    /**
+     * Closes every open channel in the pool.
+     */
+    public void closeAll() {
+        for (File f : channels.keySet()) {
+            try {
+                close(f);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A channel is closed for every thread as soon as one thread blocked on it
+     * is interrupted. Drop the dead channel so that the next access reopens
+     * it, and only propagate the failure to the thread that was interrupted.
+     */
+    private void retire(File f, FileChannel fc, ClosedChannelException e) throws ClosedChannelException {
+        channels.remove(f.getAbsoluteFile(), fc);
+        if (e instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted()) {
+            throw e;
+        }
+    }
+}
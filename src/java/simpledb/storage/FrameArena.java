@@ -0,0 +1,137 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * FrameArena is off-heap memory for the pages of a BufferPool: a fixed number
+ * of page-sized frames carved out of direct ByteBuffers allocated once, up
+ * front. A page read into a frame keeps its tuples as raw bytes there and
+ * decodes them on access, so the size of the pool hardly shows on the Java
+ * heap and cached pages give the garbage collector little to trace.
+ * <p>
+ * A frame belongs to one page from the time it is assigned to it until the
+ * page is released, after which it is handed out again. Anyone still holding
+ * the released page object would then see another page's bytes, so pages of
+ * an off-heap pool must be pinned while they are used across calls to the
+ * BufferPool.
+ * <p>
+ * The memory is split into chunks of at most {@link #MAX_CHUNK_BYTES} bytes
+ * so that arenas larger than a single ByteBuffer can address are possible.
+ *
+ * @Threadsafe
+ */
+class FrameArena {
+
+    /**
+     * Largest direct buffer the arena allocates.
+     */
+    static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+
+    private final int framesPerChunk;
+
+    private final ByteBuffer[] chunks;
+
+    private final Deque<Integer> free;
+
+    /**
+     * The frame of every page that has been assigned one.
+     */
+    private final Map<Page, Integer> owners;
+
+    /**
+     * Allocates an arena.
+     *
+     * @param numFrames number of frames
+     * @param frameSize bytes per frame, i.e. the page size
+     */
+    FrameArena(int numFrames, int frameSize) {
+        this.frameSize = frameSize;
+        this.framesPerChunk = Math.max(1, MAX_CHUNK_BYTES / frameSize);
+        int numChunks = (numFrames + framesPerChunk - 1) / framesPerChunk;
+        chunks = new ByteBuffer[numChunks];
+        for(int i = 0; i < numChunks; i++) {
+            int frames = Math.min(framesPerChunk, numFrames - i * framesPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        free = new ArrayDeque<>(numFrames);
+        for(int i = 0; i < numFrames; i++) {
+            free.add(i);
+        }
+        owners = new IdentityHashMap<>();
+    }
+
+    /**
+     * Returns the size of a frame in bytes.
+     */
+    int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Returns the number of frames not assigned to a page.
+     */
+    synchronized int getFreeFrames() {
+        return free.size();
+    }
+
+    /**
+     * Reserves a free frame.
+     *
+     * @return the frame number, or -1 if every frame is in use
+     */
+    synchronized int allocate() {
+        Integer frame = free.poll();
+        return frame == null ? -1 : frame;
+    }
+
+    /**
+     * Returns a buffer over the memory of a frame, with position 0 and limit
+     * the frame size. The contents are whatever the frame held last.
+     *
+     * @param frame a frame number returned by {@link #allocate}
+     */
+    ByteBuffer frame(int frame) {
+        ByteBuffer buffer = chunks[frame / framesPerChunk].duplicate();
+        int offset = (frame % framesPerChunk) * frameSize;
+        buffer.limit(offset + frameSize).position(offset);
+        return buffer.slice();
+    }
+
+    /**
+     * Records that a page was read into a reserved frame.
+     */
+    synchronized void assign(int frame, Page page) {
+        owners.put(page, frame);
+    }
+
+    /**
+     * Gives a reserved frame back without assigning it.
+     */
+    synchronized void free(int frame) {
+        free.push(frame);
+    }
+
+    /**
+     * Gives back the frame of a page that is no longer cached. Does nothing
+     * if the page does not live in the arena.
+     */
+    synchronized void release(Page page) {
+        Integer frame = owners.remove(page);
+        if(frame != null) {
+            free.push(frame);
+        }
+    }
+
+    /**
+     * Returns true if the page lives in a frame of this arena.
+     */
+    synchronized boolean contains(Page page) {
+        return owners.containsKey(page);
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a HeapFile are full, so that inserts
+ * can go straight to a page with a free slot instead of reading every page
+ * of the table into the BufferPool.
+ * <p>
+ * The map is one bit per page and is kept in a small file beside the heap
+ * file (the heap file's name with ".fsm" appended). It is only a hint: a page
+ * marked full is never offered to inserts, but a page that is not marked may
+ * still turn out to be full, in which case the caller marks it and moves on.
+ * Pages the map knows nothing about, including all pages of a table whose
+ * map is missing, stale or written with another page size, are treated as
+ * having room. Whenever a page is read from or written to disk its bit is
+ * set from the page's contents, so a bit that went stale (e.g. because the
+ * transaction that filled or emptied a page aborted, or because the system
+ * crashed before the map was saved) is corrected the next time the page is
+ * touched.
+ * <p>
+ * The file starts with the page size and the length of the heap file at the
+ * time the map was saved, followed by the bitmap. A map whose recorded
+ * length does not match the heap file is ignored.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private static final int HEADER_SIZE = 4 + 8;
+
+    private final File heapFile;
+
+    private final File mapFile;
+
+    private BitSet fullPages;
+
+    /**
+     * The page size the bitmap was built with; the map is dropped if the
+     * page size changes.
+     */
+    private int pageSize;
+
+    private boolean dirty;
+
+    /**
+     * Creates the free-space map of the specified heap file. The map is
+     * loaded from disk on first use.
+     *
+     * @param heapFile the file backing the HeapFile this map describes
+     */
+    public FreeSpaceMap(File heapFile) {
+        this.heapFile = heapFile;
+        this.mapFile = new File(heapFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Returns the file the map is saved to.
+     */
+    public File getFile() {
+        return mapFile;
+    }
+
+    /**
+     * Returns the number of the first page at or after from that is not
+     * known to be full. The result may be past the end of the heap file, in
+     * which case no existing page has room.
+     *
+     * @param from the page number to start searching at
+     */
+    public synchronized int nextPageWithRoom(int from) {
+        ensureLoaded();
+        return fullPages.nextClearBit(from);
+    }
+
+    /**
+     * Records whether the specified page is full.
+     */
+    public synchronized void setFull(int pageNo, boolean full) {
+        ensureLoaded();
+        if(fullPages.get(pageNo) != full) {
+            fullPages.set(pageNo, full);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Returns true if the specified page is known to be full.
+     */
+    public synchronized boolean isFull(int pageNo) {
+        ensureLoaded();
+        return fullPages.get(pageNo);
+    }
+
+    /**
+     * Saves the map to disk if it changed since it was loaded or last saved.
+     * Called after pages of the heap file have been written, so that the
+     * length recorded with the map matches the heap file.
+     */
+    public synchronized void flush() throws IOException {
+        if(fullPages == null || !dirty) {
+            return;
+        }
+        byte[] bits = fullPages.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bits.length);
+        buffer.putInt(pageSize);
+        buffer.putLong(heapFile.length());
+        buffer.put(bits);
+        buffer.flip();
+        FileChannelPool channelPool = Database.getFileChannelPool();
+        channelPool.write(mapFile, buffer, 0);
+        channelPool.getChannel(mapFile).truncate(HEADER_SIZE + bits.length);
+        dirty = false;
+    }
+
+    /**
+     * Loads the map from disk the first time it is used, and starts over
+     * with an empty map if the page size has changed since.
+     */
+    private void ensureLoaded() {
+        int currentPageSize = BufferPool.getPageSize();
+        if(fullPages != null && pageSize == currentPageSize) {
+            return;
+        }
+        pageSize = currentPageSize;
+        fullPages = new BitSet();
+        dirty = false;
+        if(!mapFile.exists()) {
+            return;
+        }
+        try {
+            FileChannelPool channelPool = Database.getFileChannelPool();
+            long size = channelPool.size(mapFile);
+            if(size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            channelPool.read(mapFile, buffer, 0);
+            buffer.flip();
+            if(buffer.getInt() != pageSize || buffer.getLong() != heapFile.length()) {
+                // saved with another page size, or the heap file changed since
+                return;
+            }
+            fullPages = BitSet.valueOf(buffer);
+        } catch (IOException e) {
+            // the map is only a hint; start from an empty one
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package simpledb.storage;
 
 import simpledb.common.*;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.*;
 
@@ -21,10 +24,83 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * The layout of the pages of a HeapFile.
+     */
+    public enum PageFormat {
+        /**
+         * Fixed-size slots with a header bitmap; see {@link HeapPage}.
+         */
+        FIXED,
+        /**
+         * Variable-length records with a slot directory; see
+         * {@link SlottedHeapPage}.
+         */
+        SLOTTED
+    }
+
+    /**
+     * Number of pages covered by each memory-mapped segment of the file.
+     */
+    private static final int PAGES_PER_SEGMENT = 16384;
+
+    /**
+     * Default number of pages a sequential scan reads ahead of its position.
+     */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+
+    /**
+     * Number of pages bulk loads gather into each write.
+     */
+    private static final int BULK_LOAD_BATCH_PAGES = 64;
+
     private final File f;
 
     private final TupleDesc td;
 
+    private final boolean memoryMapped;
+
+    private final PageFormat pageFormat;
+
+    /**
+     * Read-only mappings of the file, PAGES_PER_SEGMENT pages each. Only the
+     * last segment may be shorter; it is remapped when the file grows.
+     */
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    private long mappedLength;
+
+    private int mappedPageSize;
+
+    private volatile int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+
+    /**
+     * Which pages are full, so that inserts do not have to try every page.
+     */
+    private final FreeSpaceMap freeSpace;
+
+    /**
+     * False if a subclass overrides readPage or writePage, in which case
+     * readPages and writePages must still go through the override for every
+     * page.
+     */
+    private final boolean vectoredIO;
+
+    /**
+     * Marks a bulk load in progress: a file beside the heap file (the heap
+     * file's name with ".load" appended) holding the length of the heap file
+     * before the load, so that the pages of a load a crash interrupted can be
+     * truncated away when the file is opened again.
+     */
+    private final File loadMarker;
+
+    /**
+     * The length of the file before the bulk load in progress, or -1 if
+     * there is none. The pages a load appends are not part of the file until
+     * it finishes.
+     */
+    private volatile long loadStartLength = -1;
+
     /**
      * Constructs a heap file backed by the specified file.
      *
@@ -32,9 +108,98 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally serving
+     * page reads from a memory mapping of the file. Mapped reads decode pages
+     * straight out of the OS page cache instead of copying them into a fresh
+     * buffer first, which suits large, read-mostly tables.
+     *
+     * @param f            the file that stores the on-disk backing store for
+     *                     this heap file.
+     * @param memoryMapped whether readPage should go through a memory mapping
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td, memoryMapped, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages are laid
+     * out in the given format.
+     *
+     * @param f            the file that stores the on-disk backing store for
+     *                     this heap file.
+     * @param pageFormat   the layout of the pages in f
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat pageFormat) {
+        this(f, td, false, pageFormat);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f            the file that stores the on-disk backing store for
+     *                     this heap file.
+     * @param memoryMapped whether readPage should go through a memory mapping
+     * @param pageFormat   the layout of the pages in f
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped, PageFormat pageFormat) {
         // TODO: some code goes here
         this.f = f;
         this.td = td;
+        this.memoryMapped = memoryMapped;
+        this.pageFormat = pageFormat;
+        this.vectoredIO = !overridesPageIO();
+        this.freeSpace = new FreeSpaceMap(f);
+        this.loadMarker = new File(f.getPath() + ".load");
+        recoverBulkLoad();
+    }
+
+    /**
+     * Truncates away the pages of a bulk load that a crash interrupted.
+     */
+    private void recoverBulkLoad() {
+        if(!loadMarker.exists()) {
+            return;
+        }
+        try {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(loadMarker))) {
+                long length = in.readLong();
+                if(f.length() > length) {
+                    try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                        raf.setLength(length);
+                        raf.getFD().sync();
+                    }
+                }
+            } catch (EOFException e) {
+                // the marker is forced before any page is written, so none was
+            }
+            if(!loadMarker.delete()) {
+                throw new IOException("cannot delete " + loadMarker);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the length of the file without the pages of a bulk load in
+     * progress.
+     */
+    private long length() {
+        long loadStart = loadStartLength;
+        return loadStart >= 0 ? loadStart : f.length();
+    }
+
+    private boolean overridesPageIO() {
+        try {
+            return getClass().getMethod("readPage", PageId.class).getDeclaringClass() != HeapFile.class
+                    || getClass().getMethod("writePage", Page.class).getDeclaringClass() != HeapFile.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
     }
 
     /**
@@ -47,6 +212,56 @@ public class HeapFile implements DbFile {
         return f;
     }
 
+    /**
+     * Returns the map of full pages that inserts into this file consult.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpace;
+    }
+
+    /**
+     * Returns the layout of the pages of this file.
+     */
+    public PageFormat getPageFormat() {
+        return pageFormat;
+    }
+
+    /**
+     * Creates a page of this file's format from its bytes.
+     */
+    private HeapPage createPage(HeapPageId id, ByteBuffer data) throws IOException {
+        if(pageFormat == PageFormat.SLOTTED) {
+            return new SlottedHeapPage(id, data);
+        }
+        return new HeapPage(id, data);
+    }
+
+    /**
+     * Returns true if page reads are served from a memory mapping of the file.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Returns the number of pages that iterators over this file read ahead
+     * of the page they are on.
+     */
+    public int getReadAheadPages() {
+        return readAheadPages;
+    }
+
+    /**
+     * Sets the number of pages that iterators over this file read ahead of
+     * the page they are on; 0 disables read-ahead.
+     */
+    public void setReadAheadPages(int readAheadPages) {
+        if(readAheadPages < 0) {
+            throw new IllegalArgumentException("read-ahead window must not be negative");
+        }
+        this.readAheadPages = readAheadPages;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -74,43 +289,99 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // TODO: some code goes here
+        return readPage(pid, (ByteBuffer) null);
+    }
+
+    /**
+     * Pages can be read into the caller's buffers unless a subclass
+     * redefines how pages are read.
+     */
+    @Override
+    public boolean readsIntoFrames() {
+        return vectoredIO;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid, ByteBuffer frame) {
         int tableId = pid.getTableId();
         int pageNo = pid.getPageNumber();
-        int offset = pageNo * BufferPool.getPageSize();
-        RandomAccessFile randomAccessFile = null;
-        FileChannel fileChannel = null;
-
+        int pageSize = BufferPool.getPageSize();
+        if(pageNo < 0 || length() < (long) (pageNo + 1) * pageSize) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pageNo));
+        }
         try {
-            randomAccessFile = new RandomAccessFile(f, "rw");
-            fileChannel = randomAccessFile.getChannel();
-            if(randomAccessFile.length() < (long) (pageNo + 1) * BufferPool.getPageSize()) {
-                randomAccessFile.close();
-                fileChannel.close();
+            HeapPageId id = new HeapPageId(tableId, pageNo);
+            if(memoryMapped) {
+                if(frame == null) {
+                    return observe(createPage(id, mappedPage(pageNo)));
+                }
+                frame.put(mappedPage(pageNo)).flip();
+                return observe(createPage(id, frame));
+            }
+            ByteBuffer buffer = frame == null ? ByteBuffer.allocate(pageSize) : frame;
+            if(Database.getFileChannelPool().read(f, buffer, (long) pageNo * pageSize) < pageSize) {
                 throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pageNo));
             }
-            fileChannel.position(offset);
-            ByteBuffer buffer = ByteBuffer.allocate(BufferPool.getPageSize());
-            fileChannel.read(buffer);
-            HeapPageId id = new HeapPageId(pid.getTableId(), pageNo);
-            return new HeapPage(id, buffer.array());
-        } catch (Exception e) {
+            buffer.flip();
+            return observe(createPage(id, buffer));
+        } catch (IOException e) {
             e.printStackTrace();
         }
-        if(randomAccessFile != null) {
-            try {
-                randomAccessFile.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+        throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pageNo));
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> readPages(List<PageId> pids) {
+        return readPages(pids, null);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public List<Page> readPages(List<PageId> pids, ByteBuffer[] frames) {
+        if(!vectoredIO || memoryMapped || pids.size() < 2) {
+            if(frames == null) {
+                return DbFile.super.readPages(pids);
             }
+            List<Page> pages = new ArrayList<>(pids.size());
+            for(int i = 0; i < pids.size(); i++) {
+                pages.add(readPage(pids.get(i), frames[i]));
+            }
+            return pages;
         }
-        if(fileChannel != null) {
-            try {
-                fileChannel.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+        int tableId = getId();
+        int first = pids.get(0).getPageNumber();
+        int pageSize = BufferPool.getPageSize();
+        for(int i = 0; i < pids.size(); i++) {
+            if(pids.get(i).getTableId() != tableId || pids.get(i).getPageNumber() != first + i) {
+                throw new IllegalArgumentException("pages to read must be consecutive pages of table " + tableId);
             }
         }
-        throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pageNo));
+        if(first < 0 || length() < (long) (first + pids.size()) * pageSize) {
+            throw new IllegalArgumentException(String.format("table %d pages %d-%d are invalid",
+                    tableId, first, first + pids.size() - 1));
+        }
+        ByteBuffer[] buffers = frames;
+        if(buffers == null) {
+            buffers = new ByteBuffer[pids.size()];
+            for(int i = 0; i < buffers.length; i++) {
+                buffers[i] = ByteBuffer.allocate(pageSize);
+            }
+        }
+        try {
+            if(Database.getFileChannelPool().read(f, buffers, (long) first * pageSize) < (long) buffers.length * pageSize) {
+                throw new IllegalArgumentException(String.format("table %d pages %d-%d are invalid",
+                        tableId, first, first + pids.size() - 1));
+            }
+            List<Page> pages = new ArrayList<>(buffers.length);
+            for(int i = 0; i < buffers.length; i++) {
+                buffers[i].flip();
+                pages.add(observe(createPage(new HeapPageId(tableId, first + i), buffers[i])));
+            }
+            return pages;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
     }
 
     // see DbFile.java for javadocs
@@ -121,10 +392,99 @@ public class HeapFile implements DbFile {
         if(pageId > numPages()) {
             throw new IllegalArgumentException();
         }
-        RandomAccessFile randomAccessFile = new RandomAccessFile(f, "rw");
-        randomAccessFile.seek((long) pageId * BufferPool.getPageSize());
-        randomAccessFile.write(page.getPageData());
-        randomAccessFile.close();
+        ByteBuffer buffer = page.getPageBuffer();
+        Database.getFileChannelPool().write(f, buffer, (long) pageId * BufferPool.getPageSize());
+        observe((HeapPage) page);
+    }
+
+    /**
+     * Brings the free-space map in line with a page that was just read from
+     * or written to disk.
+     */
+    private HeapPage observe(HeapPage page) {
+        freeSpace.setFull(page.getId().getPageNumber(), page.getNumUnusedSlots() == 0);
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        if(!vectoredIO) {
+            DbFile.super.writePages(pages);
+            freeSpace.flush();
+            return;
+        }
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        int numPages = numPages();
+        int start = 0;
+        while(start < sorted.size()) {
+            // gather a run of adjacent pages into a single write
+            int end = start + 1;
+            while(end < sorted.size()
+                    && sorted.get(end).getId().getPageNumber() == sorted.get(end - 1).getId().getPageNumber() + 1) {
+                end++;
+            }
+            int first = sorted.get(start).getId().getPageNumber();
+            if(first > numPages) {
+                throw new IllegalArgumentException();
+            }
+            ByteBuffer[] buffers = new ByteBuffer[end - start];
+            for(int i = start; i < end; i++) {
+                buffers[i - start] = sorted.get(i).getPageBuffer();
+            }
+            Database.getFileChannelPool().write(f, buffers, (long) first * BufferPool.getPageSize());
+            numPages = Math.max(numPages, first + buffers.length);
+            start = end;
+        }
+        Database.getFileChannelPool().force(f);
+        for(Page page : sorted) {
+            observe((HeapPage) page);
+        }
+        freeSpace.flush();
+    }
+
+    /**
+     * Returns a view of the specified page in the memory mapping of the file,
+     * mapping the tail of the file first if the page lies beyond the part
+     * mapped so far (e.g. because insertTuple appended a page).
+     */
+    private synchronized ByteBuffer mappedPage(int pageNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        if(pageSize != mappedPageSize || (long) (pageNo + 1) * pageSize > mappedLength) {
+            remap(pageSize);
+        }
+        MappedByteBuffer segment = segments.get(pageNo / PAGES_PER_SEGMENT);
+        int offset = (pageNo % PAGES_PER_SEGMENT) * pageSize;
+        ByteBuffer view = segment.duplicate();
+        view.position(offset);
+        view.limit(offset + pageSize);
+        return view.slice();
+    }
+
+    /**
+     * Extends the mapping to cover every whole page currently in the file.
+     * Complete segments are kept; the last, partial segment is replaced.
+     */
+    private void remap(int pageSize) throws IOException {
+        long segmentBytes = (long) PAGES_PER_SEGMENT * pageSize;
+        FileChannel channel = Database.getFileChannelPool().getChannel(f);
+        long length = channel.size() / pageSize * pageSize;
+        if(pageSize != mappedPageSize || length < mappedLength) {
+            // the page size changed or the file shrank, so start over
+            segments.clear();
+            mappedLength = 0;
+            mappedPageSize = pageSize;
+        }
+        if(!segments.isEmpty() && mappedLength % segmentBytes != 0) {
+            segments.remove(segments.size() - 1);
+        }
+        long start = segments.size() * segmentBytes;
+        while(start < length) {
+            long size = Math.min(segmentBytes, length - start);
+            segments.add(channel.map(FileChannel.MapMode.READ_ONLY, start, size));
+            start += size;
+        }
+        mappedLength = length;
     }
 
     /**
@@ -132,7 +492,7 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // TODO: some code goes here
-        return (int) Math.ceil((double) getFile().length() / BufferPool.getPageSize());
+        return (int) Math.ceil((double) length() / BufferPool.getPageSize());
     }
 
     // see DbFile.java for javadocs
@@ -140,46 +500,381 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // TODO: some code goes here
         ArrayList<Page> arrayList = new ArrayList<>();
-        for(int pgNo = 0; pgNo < numPages(); pgNo++) {
+        BufferPool bufferPool = Database.getBufferPool();
+        if(bufferPool.isTupleLocking(getId())) {
+            arrayList.add(insertTupleLocked(tid, t));
+            return arrayList;
+        }
+        // only try the pages the free-space map does not know to be full
+        for(int pgNo = freeSpace.nextPageWithRoom(0); pgNo < numPages(); pgNo = freeSpace.nextPageWithRoom(pgNo + 1)) {
             HeapPageId heapPageId = new HeapPageId(getId(), pgNo);
-            HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
-            if(heapPage.getNumUnusedSlots() != 0) {
-                heapPage.insertTuple(t);
-                arrayList.add(heapPage);
-                return arrayList;
+            boolean locked = bufferPool.holdsLock(tid, heapPageId);
+            // pinned so that it is not evicted between the change and markDirty
+            HeapPage heapPage = (HeapPage) bufferPool.pinPage(tid, heapPageId, Permissions.READ_WRITE);
+            try {
+                if(heapPage.hasRoomFor(t)) {
+                    heapPage.insertTuple(t);
+                    heapPage.markDirty(true, tid);
+                    freeSpace.setFull(pgNo, heapPage.getNumUnusedSlots() == 0);
+                    arrayList.add(heapPage);
+                    return arrayList;
+                }
+                // on slotted pages a smaller tuple may still fit
+                freeSpace.setFull(pgNo, heapPage.getNumUnusedSlots() == 0);
+            } finally {
+                bufferPool.unpinPage(tid, heapPageId);
+            }
+            // the page was only looked at, so a lock taken just for that can go
+            if(!locked) {
+                bufferPool.unsafeReleasePage(tid, heapPageId);
             }
         }
 
-        BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));
-        byte[] emptyPage = HeapPage.createEmptyPageData();
-        bw.write(emptyPage);
-        bw.close();
+        int newPageNo;
+        synchronized (this) {
+            FileChannelPool channelPool = Database.getFileChannelPool();
+            long size = channelPool.size(f);
+            channelPool.write(f, ByteBuffer.wrap(HeapPage.createEmptyPageData()), size);
+            newPageNo = (int) (size / BufferPool.getPageSize());
+            freeSpace.setFull(newPageNo, false);
+        }
 
-        HeapPageId heapPageId = new HeapPageId(getId(), numPages() - 1);
-        HeapPage newPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
-        newPage.insertTuple(t);
+        HeapPageId heapPageId = new HeapPageId(getId(), newPageNo);
+        HeapPage newPage = (HeapPage) bufferPool.pinPage(tid, heapPageId, Permissions.READ_WRITE);
+        try {
+            newPage.insertTuple(t);
+            newPage.markDirty(true, tid);
+        } finally {
+            bufferPool.unpinPage(tid, heapPageId);
+        }
+        freeSpace.setFull(newPageNo, newPage.getNumUnusedSlots() == 0);
         arrayList.add(newPage);
         return arrayList;
         // not necessary for lab1
     }
 
+    /**
+     * Inserts a tuple into a table with tuple locking: looks for a free slot
+     * no other transaction has locked, e.g. because it deleted the tuple
+     * there, on pages this transaction holds intention locks on, and
+     * appends a page if there is none.
+     */
+    private HeapPage insertTupleLocked(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        while(true) {
+            for(int pgNo = freeSpace.nextPageWithRoom(0); pgNo < numPages(); pgNo = freeSpace.nextPageWithRoom(pgNo + 1)) {
+                HeapPageId heapPageId = new HeapPageId(getId(), pgNo);
+                boolean locked = bufferPool.holdsLock(tid, heapPageId);
+                HeapPage heapPage = (HeapPage) bufferPool.pinTuplePage(tid, heapPageId, Permissions.READ_WRITE);
+                try {
+                    if(insertIntoFreeSlot(tid, heapPage, t)) {
+                        return heapPage;
+                    }
+                } finally {
+                    bufferPool.unpinPage(tid, heapPageId);
+                }
+                if(!locked) {
+                    bufferPool.unsafeReleasePage(tid, heapPageId);
+                }
+            }
+
+            int newPageNo;
+            synchronized (this) {
+                FileChannelPool channelPool = Database.getFileChannelPool();
+                long size = channelPool.size(f);
+                channelPool.write(f, ByteBuffer.wrap(HeapPage.createEmptyPageData()), size);
+                newPageNo = (int) (size / BufferPool.getPageSize());
+                freeSpace.setFull(newPageNo, false);
+            }
+            HeapPageId heapPageId = new HeapPageId(getId(), newPageNo);
+            HeapPage newPage = (HeapPage) bufferPool.pinTuplePage(tid, heapPageId, Permissions.READ_WRITE);
+            try {
+                // other transactions may have filled the new page already
+                if(insertIntoFreeSlot(tid, newPage, t)) {
+                    return newPage;
+                }
+            } finally {
+                bufferPool.unpinPage(tid, heapPageId);
+            }
+        }
+    }
+
+    /**
+     * Inserts a tuple into the first free slot of a page that can be locked
+     * without waiting, with the page latched.
+     *
+     * @return false if there is no such slot
+     */
+    private boolean insertIntoFreeSlot(TransactionId tid, HeapPage heapPage, Tuple t)
+            throws DbException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        HeapPageId pid = heapPage.getId();
+        synchronized (heapPage) {
+            for(int slot = 0; slot < heapPage.getNumSlots(); slot++) {
+                if(heapPage.isSlotUsed(slot)
+                        || !bufferPool.tryLockTuple(tid, new RecordId(pid, slot), Permissions.READ_WRITE)) {
+                    continue;
+                }
+                heapPage.insertTuple(t, slot);
+                heapPage.markDirty(true, tid);
+                bufferPool.recordTupleInsert(tid, t.getRecordId());
+                updateFreeSpace(heapPage);
+                return true;
+            }
+            updateFreeSpace(heapPage);
+            return false;
+        }
+    }
+
+    /**
+     * Records in the free-space map whether a page has a free slot left.
+     */
+    void updateFreeSpace(HeapPage heapPage) {
+        freeSpace.setFull(heapPage.getId().getPageNumber(), heapPage.getNumUnusedSlots() == 0);
+    }
+
     // see DbFile.java for javadocs
     public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // TODO: some code goes here
         ArrayList<Page> arrayList = new ArrayList<>();
         PageId pageId = t.getRecordId().getPageId();
-        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-        heapPage.deleteTuple(t);
+        BufferPool bufferPool = Database.getBufferPool();
+        if(bufferPool.isTupleLocking(getId())) {
+            HeapPage heapPage = (HeapPage) bufferPool.pinTuple(tid, t.getRecordId(), Permissions.READ_WRITE);
+            try {
+                synchronized (heapPage) {
+                    heapPage.deleteTuple(t);
+                    heapPage.markDirty(true, tid);
+                    bufferPool.recordTupleDelete(tid, t);
+                }
+            } finally {
+                bufferPool.unpinPage(tid, pageId);
+            }
+            freeSpace.setFull(pageId.getPageNumber(), false);
+            arrayList.add(heapPage);
+            return arrayList;
+        }
+        HeapPage heapPage = (HeapPage) bufferPool.pinPage(tid, pageId, Permissions.READ_WRITE);
+        try {
+            heapPage.deleteTuple(t);
+            heapPage.markDirty(true, tid);
+        } finally {
+            bufferPool.unpinPage(tid, pageId);
+        }
+        freeSpace.setFull(pageId.getPageNumber(), false);
         arrayList.add(heapPage);
         return arrayList;
         // not necessary for lab1
     }
 
+    /**
+     * Appends every tuple produced by source to this file, bypassing the
+     * BufferPool: tuples are packed into full HeapPage images in memory and
+     * the pages are written past the current end of the file with large
+     * sequential writes. The file must be registered in the catalog.
+     * <p>
+     * The load is all or nothing. It holds the lock that inserts take to
+     * extend the file, so no other pages are appended in the meantime, and
+     * the pages it appends are not part of the file until it finishes:
+     * numPages() and scans, including one source itself runs over this file,
+     * do not see them. If the load fails the file is truncated back to its
+     * previous length and any of its pages cached in the BufferPool are
+     * discarded; if a crash interrupts it, the file is truncated back when it
+     * is next opened. The pages are forced to disk before the method returns;
+     * they are not logged and do not take part in the caller's transaction,
+     * so an abort does not undo a completed load.
+     *
+     * @param source the tuples to load; opened and closed by this method
+     * @return the number of tuples loaded
+     * @throws DbException if a tuple does not match this file's TupleDesc
+     */
+    public int bulkLoad(OpIterator source) throws DbException, IOException, TransactionAbortedException {
+        synchronized(this) {
+            BulkLoader loader = new BulkLoader();
+            try {
+                source.open();
+                while(source.hasNext()) {
+                    loader.add(source.next());
+                }
+                loader.finish();
+            } catch (DbException | IOException | TransactionAbortedException | RuntimeException e) {
+                loader.abort();
+                throw e;
+            } finally {
+                loader.close();
+                source.close();
+            }
+            return loader.count;
+        }
+    }
+
+    /**
+     * Appends the tuples in a text file of delimited values to this file,
+     * one tuple per line with the fields in the order of this file's
+     * TupleDesc. Loading works as in {@link #bulkLoad(OpIterator)}.
+     *
+     * @param in             the text to read tuples from
+     * @param fieldSeparator the character that separates fields on a line
+     * @return the number of tuples loaded
+     * @throws IOException if a line cannot be parsed
+     */
+    public int bulkLoad(Reader in, char fieldSeparator) throws DbException, IOException {
+        synchronized(this) {
+            BulkLoader loader = new BulkLoader();
+            BufferedReader br = new BufferedReader(in);
+            String separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+            try {
+                String line;
+                while((line = br.readLine()) != null) {
+                    if(line.trim().isEmpty()) {
+                        continue;
+                    }
+                    String[] values = line.split(separator, -1);
+                    if(values.length != td.numFields()) {
+                        throw new IOException("malformed line: " + line);
+                    }
+                    Tuple t = new Tuple(td);
+                    for(int i = 0; i < values.length; i++) {
+                        String value = values[i].trim();
+                        if(td.getFieldType(i) == Type.INT_TYPE) {
+                            try {
+                                t.setField(i, new IntField(Integer.parseInt(value)));
+                            } catch (NumberFormatException e) {
+                                throw new IOException("malformed line: " + line, e);
+                            }
+                        }
+                        else {
+                            t.setField(i, new StringField(value, Type.STRING_LEN));
+                        }
+                    }
+                    loader.add(t);
+                }
+                loader.finish();
+            } catch (DbException | IOException | RuntimeException e) {
+                loader.abort();
+                throw e;
+            } finally {
+                loader.close();
+            }
+            return loader.count;
+        }
+    }
+
+    /**
+     * Packs tuples into pages appended after the last page of the file,
+     * writing them out BULK_LOAD_BATCH_PAGES at a time. The pages stay
+     * hidden until the loader is closed.
+     */
+    private final class BulkLoader {
+        private final long startLength = f.length();
+        private final List<HeapPage> batch = new ArrayList<>();
+        private HeapPage page;
+        private final int firstPage = numPages();
+        private int nextPage = firstPage;
+        private int count;
+
+        BulkLoader() throws IOException {
+            try (FileOutputStream out = new FileOutputStream(loadMarker)) {
+                out.write(ByteBuffer.allocate(8).putLong(startLength).array());
+                out.getFD().sync();
+            }
+            loadStartLength = startLength;
+        }
+
+        void add(Tuple t) throws DbException, IOException {
+            if(page != null && !page.hasRoomFor(t)) {
+                finishPage();
+            }
+            if(page == null) {
+                page = createPage(new HeapPageId(getId(), nextPage++), ByteBuffer.wrap(HeapPage.createEmptyPageData()));
+            }
+            page.insertTuple(t);
+            count++;
+            if(page.getNumUnusedSlots() == 0) {
+                finishPage();
+            }
+        }
+
+        private void finishPage() throws IOException {
+            batch.add(page);
+            page = null;
+            if(batch.size() == BULK_LOAD_BATCH_PAGES) {
+                writeBatch();
+            }
+        }
+
+        void finish() throws IOException {
+            if(page != null) {
+                batch.add(page);
+                page = null;
+            }
+            writeBatch();
+            Database.getFileChannelPool().force(f);
+            freeSpace.flush();
+            deleteMarker();
+        }
+
+        void abort() throws IOException {
+            FileChannelPool channelPool = Database.getFileChannelPool();
+            channelPool.getChannel(f).truncate(startLength);
+            channelPool.force(f);
+            BufferPool bufferPool = Database.getBufferPool();
+            for(int pgNo = firstPage; pgNo < nextPage; pgNo++) {
+                bufferPool.removePage(new HeapPageId(getId(), pgNo));
+                freeSpace.setFull(pgNo, false);
+            }
+            deleteMarker();
+        }
+
+        /**
+         * Makes the pages of the load part of the file, or, if it was
+         * aborted, the file as it was before.
+         */
+        void close() {
+            loadStartLength = -1;
+        }
+
+        private void deleteMarker() throws IOException {
+            if(!loadMarker.delete()) {
+                throw new IOException("cannot delete " + loadMarker);
+            }
+        }
+
+        private void writeBatch() throws IOException {
+            if(batch.isEmpty()) {
+                return;
+            }
+            ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+            for(int i = 0; i < buffers.length; i++) {
+                buffers[i] = batch.get(i).getPageBuffer();
+            }
+            long position = (long) batch.get(0).getId().getPageNumber() * BufferPool.getPageSize();
+            Database.getFileChannelPool().write(f, buffers, position);
+            for(HeapPage written : batch) {
+                observe(written);
+            }
+            batch.clear();
+        }
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // TODO: some code goes here
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy the
+     * specified predicate. The predicate is evaluated against the raw page
+     * data, so tuples that do not pass it are never decoded.
+     *
+     * @param tid the transaction the scan runs as a part of
+     * @param p   the predicate to filter tuples with, or null for all tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p) {
+        return new HeapFileIterator(this, tid, p);
     }
 
     private static final class HeapFileIterator implements DbFileIterator {
@@ -188,13 +883,29 @@ public class HeapFile implements DbFile {
 
         private final TransactionId tid;
 
+        private final Predicate predicate;
+
         private Iterator<Tuple> tupleIterator;
 
         private int index;
 
-        public HeapFileIterator(HeapFile heapFile, TransactionId tid) {
+        /**
+         * The page the iterator is on, which is pinned in bufferPool while the
+         * iterator is open.
+         */
+        private HeapPageId pinnedPage;
+
+        private BufferPool bufferPool;
+
+        /**
+         * Last page number handed to the buffer pool for read-ahead.
+         */
+        private int readAheadTo;
+
+        public HeapFileIterator(HeapFile heapFile, TransactionId tid, Predicate predicate) {
             this.heapFile = heapFile;
             this.tid = tid;
+            this.predicate = predicate;
         }
 
         private Iterator<Tuple> getTupleIterator(int pageNumber) throws DbException, TransactionAbortedException {
@@ -203,14 +914,47 @@ public class HeapFile implements DbFile {
             }
             else {
                 HeapPageId heapPageId = new HeapPageId(heapFile.getId(), pageNumber);
-                HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
-                return heapPage.iterator();
+                unpin();
+                bufferPool = Database.getBufferPool();
+                HeapPage heapPage = (HeapPage) bufferPool.pinPage(tid, heapPageId, Permissions.READ_ONLY);
+                pinnedPage = heapPageId;
+                readAhead(pageNumber);
+                return heapPage.iterator(predicate);
+            }
+        }
+
+        private void unpin() {
+            if(pinnedPage != null) {
+                bufferPool.unpinPage(tid, pinnedPage);
+                pinnedPage = null;
+            }
+        }
+
+        /**
+         * Asks the buffer pool to load the pages following pageNumber in the
+         * background. Requests are issued half a window at a time so that the
+         * I/O threads see a few contiguous pages per request.
+         */
+        private void readAhead(int pageNumber) {
+            int window = heapFile.getReadAheadPages();
+            if(window == 0 || readAheadTo - pageNumber > window / 2) {
+                return;
+            }
+            int last = Math.min(pageNumber + window, heapFile.numPages() - 1);
+            List<PageId> pids = new ArrayList<>();
+            for(int i = Math.max(readAheadTo, pageNumber) + 1; i <= last; i++) {
+                pids.add(new HeapPageId(heapFile.getId(), i));
+            }
+            if(!pids.isEmpty()) {
+                readAheadTo = last;
+                Database.getBufferPool().prefetchPages(tid, pids);
             }
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
             index = 0;
+            readAheadTo = 0;
             tupleIterator = getTupleIterator(index);
         }
 
@@ -253,6 +997,7 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             tupleIterator = null;
+            unpin();
         }
     }
 
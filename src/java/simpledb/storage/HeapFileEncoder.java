@@ -4,6 +4,7 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
@@ -225,4 +226,80 @@ public class HeapFileEncoder {
         br.close();
         os.close();
     }
+
+    /**
+     * Convert the specified input text file into a binary page file with
+     * pages in the specified format. FIXED produces the same file as
+     * {@link #convert(File, File, int, int, Type[], char)}; SLOTTED packs the
+     * tuples as variable-length records, as described in SlottedHeapPage.
+     *
+     * @param inFile         The input file to read data from
+     * @param outFile        The output file to write data to
+     * @param npagebytes     The number of bytes per page in the output file
+     * @param numFields      the number of fields in each input line/output tuple
+     * @param typeAr         the types of the fields
+     * @param fieldSeparator the character that separates fields on a line
+     * @param format         the layout of the pages to write
+     * @throws IOException if the input/output file can't be opened or a
+     *                     malformed input line is encountered
+     * @see SlottedHeapPage
+     */
+    public static void convert(File inFile, File outFile, int npagebytes,
+                               int numFields, Type[] typeAr, char fieldSeparator,
+                               HeapFile.PageFormat format)
+            throws IOException {
+        if (format == HeapFile.PageFormat.FIXED) {
+            convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+            return;
+        }
+        if (npagebytes > SlottedHeapPage.MAX_PAGE_SIZE) {
+            throw new IOException("slotted pages can be at most " + SlottedHeapPage.MAX_PAGE_SIZE + " bytes");
+        }
+
+        TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+        String separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+        try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+             FileOutputStream os = new FileOutputStream(outFile)) {
+            ByteBuffer page = ByteBuffer.allocate(npagebytes);
+            int recordcount = 0;
+            int npages = 0;
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                String[] values = line.split(separator, -1);
+                if (values.length != numFields)
+                    throw new IOException("BAD LINE : " + line);
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < numFields; i++) {
+                    String s = values[i].trim();
+                    if (typeAr[i] == Type.INT_TYPE) {
+                        try {
+                            t.setField(i, new IntField(Integer.parseInt(s)));
+                        } catch (NumberFormatException e) {
+                            throw new IOException("BAD LINE : " + line, e);
+                        }
+                    } else {
+                        t.setField(i, new StringField(s, Type.STRING_LEN));
+                    }
+                }
+
+                // start a new page when the record does not fit on this one
+                if (!SlottedHeapPage.appendRecord(page, t)) {
+                    if (recordcount == 0)
+                        throw new IOException("record does not fit on a page: " + line);
+                    os.write(page.array());
+                    npages++;
+                    page = ByteBuffer.allocate(npagebytes);
+                    recordcount = 0;
+                    SlottedHeapPage.appendRecord(page, t);
+                }
+                recordcount++;
+            }
+
+            // flush the last page, or an empty one if the file is empty
+            if (recordcount > 0 || npages == 0)
+                os.write(page.array());
+        }
+    }
 }
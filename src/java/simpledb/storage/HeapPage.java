@@ -4,17 +4,24 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage keeps the raw bytes of the page rather than a decoded Tuple for
+ * every slot. Fields are decoded on demand from offsets computed from the
+ * TupleDesc, and Tuple objects are only built for the rows that are actually
+ * returned, so that scans which read a single column or discard most rows
+ * do not pay for decoding the whole page.
  *
  * @see HeapFile
  * @see BufferPool
@@ -23,16 +30,28 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
+    final int headerSize;
+    //已经解码过的tuple，未解码的槽为null
     final Tuple[] tuples;
     final int numSlots;
+    final int tupleSize;
+    final int[] fieldOffsets;
 
+    //页的原始字节（包括header），位置0为页的开头；只读的缓冲区在第一次修改时复制
+    ByteBuffer data;
+
+    //before image的缓冲区，在各次修改之间重复使用
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    //自上次setBeforeImage以来是否修改过；没有修改过时当前内容就是before image
+    boolean modified;
+    //保护oldData和modified的锁，每个页一个
+    private final Object oldDataLock = new Object();
     //脏页标志位
     boolean dirty;
     //产生脏页的事务id
     TransactionId dirtyId;
+    //被标记为脏页的次数
+    long dirtyCount;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -52,27 +71,41 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.clone()));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page as read from disk,
+     * starting at the buffer's current position. The page takes ownership of
+     * the buffer's contents instead of copying them, so the caller must not
+     * modify them afterwards. The buffer may be a read-only view of a
+     * memory-mapped file, in which case it is copied on the first write.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.tupleSize = td.getSize();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        this.headerSize = getHeaderSize();
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 0; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = td.getFieldOffset(j);
 
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+        int len = BufferPool.getPageSize();
+        ByteBuffer buf = data.slice();
+        if (buf.remaining() < len) {
+            // short pages are padded with zeroes, like the rest of the page
+            ByteBuffer padded = ByteBuffer.allocate(len);
+            padded.put(buf);
+            padded.clear();
+            buf = padded;
         }
-        dis.close();
+        buf.limit(len);
+        this.data = buf;
 
-        setBeforeImage();
+        tuples = new Tuple[numSlots];
     }
 
     /**
@@ -80,9 +113,9 @@ public class HeapPage implements Page {
      *
      * @return the number of tuples on this page
      */
-    private int getNumTuples() {
+    int getNumTuples() {
         // TODO: some code goes here
-        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        return (BufferPool.getPageSize() * 8) / (tupleSize * 8 + 1);
     }
 
     /**
@@ -90,7 +123,7 @@ public class HeapPage implements Page {
      *
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
-    private int getHeaderSize() {
+    int getHeaderSize() {
 
         // TODO: some code goes here
         return (int) Math.ceil((double) getNumTuples() / 8);
@@ -102,12 +135,14 @@ public class HeapPage implements Page {
      * -- used by recovery
      */
     public HeapPage getBeforeImage() {
+        byte[] image;
+        synchronized (oldDataLock) {
+            // copied under the lock, so that a write starting meanwhile can
+            // neither reuse oldData nor tear the current contents
+            image = modified ? oldData.clone() : getPageData();
+        }
         try {
-            byte[] oldDataRef = null;
-            synchronized (oldDataLock) {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid, oldDataRef);
+            return newPage(ByteBuffer.wrap(image));
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -116,9 +151,40 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * Creates a page of the same class as this one with the given contents.
+     */
+    HeapPage newPage(ByteBuffer pageData) throws IOException {
+        return new HeapPage(pid, pageData);
+    }
+
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            // the current contents are the before image until the next write
+            modified = false;
+        }
+    }
+
+    /**
+     * Called before every modification of the page: saves the before image if
+     * this is the first modification since {@link #setBeforeImage}, and makes
+     * sure the page owns a writable copy of its bytes.
+     */
+    void prepareWrite() {
+        synchronized (oldDataLock) {
+            if (!modified) {
+                if (oldData == null) {
+                    oldData = new byte[BufferPool.getPageSize()];
+                }
+                data.duplicate().get(oldData);
+                modified = true;
+            }
+        }
+        if (data.isReadOnly()) {
+            ByteBuffer copy = ByteBuffer.allocate(data.capacity());
+            copy.put(data.duplicate());
+            copy.clear();
+            data = copy;
         }
     }
 
@@ -131,39 +197,77 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset of the given slot from the start of the page
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * tupleSize;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Decodes one field of the tuple in the specified slot.
+     *
+     * @param buf        a view of this page's data whose position may be changed
+     * @param slotId     the slot to read from
+     * @param fieldIndex the field of the tuple to decode
+     */
+    Field readField(ByteBuffer buf, int slotId, int fieldIndex) throws NoSuchElementException {
+        buf.position(slotOffset(slotId) + fieldOffsets[fieldIndex]);
         try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return td.getFieldType(fieldIndex).parse(buf);
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
+
+    /**
+     * Returns the tuple in the specified slot, decoding it from the page data
+     * if it has not been decoded before.
+     *
+     * @param buf    a view of this page's data whose position may be changed
+     * @param slotId the slot to read from; must be in use
+     */
+    Tuple readTuple(ByteBuffer buf, int slotId) throws NoSuchElementException {
+        Tuple t = tuples[slotId];
+        if (t != null) {
+            return t;
+        }
 
+        // read fields in the tuple
+        t = new Tuple(td);
+        RecordId rid = new RecordId(pid, slotId);
+        t.setRecordId(rid);
+        for (int j = 0; j < fieldOffsets.length; j++) {
+            t.setField(j, readField(buf, slotId, j));
+        }
+        tuples[slotId] = t;
         return t;
     }
 
+    /**
+     * Decodes a single field of the tuple stored in the specified slot,
+     * without building a Tuple for the rest of the row.
+     *
+     * @param slotId     the slot to read from
+     * @param fieldIndex the index of the field in this page's TupleDesc
+     * @return the value of the field
+     * @throws NoSuchElementException if the slot is empty or the field does not
+     *                                exist
+     */
+    public Field getField(int slotId, int fieldIndex) throws NoSuchElementException {
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        if (fieldIndex < 0 || fieldIndex >= td.numFields()) {
+            throw new NoSuchElementException("no field " + fieldIndex);
+        }
+        Tuple t = tuples[slotId];
+        if (t != null) {
+            return t.getField(fieldIndex);
+        }
+        return readField(data.duplicate(), slotId, fieldIndex);
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -177,63 +281,22 @@ public class HeapPage implements Page {
      */
     public byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        byte[] pageData = new byte[len];
 
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // the header and slots are kept serialized, and empty slots and the
+        // padding are zeroed when they are cleared, so the page is copied as is
+        data.duplicate().get(pageData);
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        return pageData;
+    }
 
-        return baos.toByteArray();
+    /**
+     * Returns a read-only view of the bytes of this page, in the format of
+     * {@link #getPageData}, without copying them.
+     */
+    @Override
+    public ByteBuffer getPageBuffer() {
+        return data.asReadOnlyBuffer();
     }
 
     /**
@@ -261,21 +324,22 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // TODO: some code goes here
         // not necessary for lab1
-        int tupleNumber = t.getRecordId().getTupleNumber();
-        boolean flag = false;
-        for(int i = 0; i < tuples.length; i++) {
-            if(t.equals(tuples[i])) {
-                if(!isSlotUsed(i)) {
-                    throw new DbException("the tuple is already empty !!!");
-                }
-                markSlotUsed(i, false);
-                tuples[tupleNumber] = null;
-                flag = true;
-            }
-        }
-        if(!flag) {
+        RecordId rid = t.getRecordId();
+        if(rid == null || !pid.equals(rid.getPageId())
+                || rid.getTupleNumber() < 0 || rid.getTupleNumber() >= numSlots) {
             throw new DbException("Tuple does not exist !!!");
         }
+        int tupleNumber = rid.getTupleNumber();
+        if(!isSlotUsed(tupleNumber)) {
+            throw new DbException("the tuple is already empty !!!");
+        }
+        prepareWrite();
+        markSlotUsed(tupleNumber, false);
+        tuples[tupleNumber] = null;
+        int offset = slotOffset(tupleNumber);
+        for (int j = 0; j < tupleSize; j++) {
+            data.put(offset + j, (byte) 0);
+        }
     }
 
     /**
@@ -292,28 +356,72 @@ public class HeapPage implements Page {
         if(getNumUnusedSlots() == 0) {
             throw new DbException("the page is full!");
         }
-        if(!t.getTupleDesc().equals(td)) {
-            throw new DbException("tupleDesc is mismatch!");
-        }
         for(int i = 0; i < numSlots; i++) {
             if(!isSlotUsed(i)) {
-                markSlotUsed(i,true);
-                t.setRecordId(new RecordId(pid, i));
-                tuples[i] = t;
+                insertTuple(t, i);
                 return;
             }
         }
     }
 
+    /**
+     * Adds the specified tuple to the page in the specified slot, e.g. to
+     * put back a deleted tuple where it was; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     *
+     * @param t      The tuple to add.
+     * @param slotId The slot to add it in.
+     * @throws DbException if the slot is not empty or tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t, int slotId) throws DbException {
+        if(slotId < 0 || slotId >= numSlots || isSlotUsed(slotId)) {
+            throw new DbException("slot " + slotId + " is not empty!");
+        }
+        if(!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupleDesc is mismatch!");
+        }
+        prepareWrite();
+        writeTuple(t, slotId);
+        markSlotUsed(slotId, true);
+        t.setRecordId(new RecordId(pid, slotId));
+        // the caller keeps t, so it is decoded again when it is read
+        tuples[slotId] = null;
+    }
+
+    /**
+     * Serializes the fields of t into the specified slot.
+     */
+    private void writeTuple(Tuple t, int slotId) {
+        ByteBuffer buf = data.duplicate();
+        buf.position(slotOffset(slotId));
+        for (int j = 0; j < fieldOffsets.length; j++) {
+            t.getField(j).serialize(buf);
+        }
+    }
+
+    /**
+     * Returns true if the specified tuple can be added to this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumUnusedSlots() > 0;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
      */
-    public void markDirty(boolean dirty, TransactionId tid) {
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
         // TODO: some code goes here
         // not necessary for lab1
         this.dirty = dirty;
         dirtyId = tid;
+        if(dirty) {
+            dirtyCount++;
+        }
+    }
+
+    public synchronized long getDirtyCount() {
+        return dirtyCount;
     }
 
     /**
@@ -328,21 +436,26 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * Returns the number of slots on this page, used or not.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Returns the number of unused (i.e., empty) slots on this page.
      */
     public int getNumUnusedSlots() {
         // TODO: some code goes here
-        int numUsedSlots = 0;
-        for(byte b : header) {
-            for(int i = 0; i < 8; i++) {
-                int bit = ((b >> i) & (0x1));
-                if(bit == 0) {
-                    numUsedSlots++;
-                }
+        // the padding bits after the last slot in the header do not count
+        int numUnusedSlots = 0;
+        for(int i = 0; i < numSlots; i++) {
+            if(!isSlotUsed(i)) {
+                numUnusedSlots++;
             }
         }
-        return numUsedSlots;
+        return numUnusedSlots;
     }
 
     /**
@@ -352,7 +465,7 @@ public class HeapPage implements Page {
         // TODO: some code goes here
         int idx = i / 8;
         int bit = i % 8;
-        int associated_bit = (header[idx] >> bit) & 0x1;
+        int associated_bit = (data.get(idx) >> bit) & 0x1;
         return associated_bit == 1;
     }
 
@@ -367,26 +480,95 @@ public class HeapPage implements Page {
             int bit = i % 8;
             byte mask = (byte) (0x1 << bit);
             if(value) {
-                header[idx] |= mask;
+                data.put(idx, (byte) (data.get(idx) | mask));
             }
             else {
-                header[idx] &= ~mask;
+                data.put(idx, (byte) (data.get(idx) & ~mask));
             }
         }
     }
 
+    /**
+     * @return the slots in use, read in one go from the header
+     */
+    BitSet getUsedSlots() {
+        ByteBuffer buf = data.duplicate();
+        buf.limit(headerSize);
+        BitSet used = BitSet.valueOf(buf);
+        // ignore any padding bits after the last slot
+        used.clear(numSlots, headerSize * 8);
+        return used;
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      *         (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
         // TODO: some code goes here
-        List<Tuple> tupleList = new ArrayList<>();
-        for(int i = 0; i < numSlots; i++) {
-            if(isSlotUsed(i)) tupleList.add(tuples[i]);
+        return new SlotIterator(null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy the
+     * specified predicate. Only the field the predicate tests is decoded for
+     * each slot; a Tuple is built only for the rows that pass.
+     *
+     * @param p the predicate to filter tuples with, or null to return all
+     *          tuples on the page
+     * @return an iterator over the matching tuples (calling remove on this
+     *         iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        return new SlotIterator(p);
+    }
+
+    /**
+     * Walks the slots that were in use when the iterator was created,
+     * skipping those that have since been deleted, and decodes tuples as
+     * they are returned.
+     */
+    private class SlotIterator implements Iterator<Tuple> {
+        private final Predicate predicate;
+        private final BitSet usedSlots = getUsedSlots();
+        private final ByteBuffer buf = data.duplicate();
+        private int slot = 0;
+        private Tuple next;
+
+        SlotIterator(Predicate predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && slot >= 0) {
+                int i = usedSlots.nextSetBit(slot);
+                slot = i < 0 ? -1 : i + 1;
+                if (i < 0 || !isSlotUsed(i)) {
+                    continue;
+                }
+                if (predicate == null) {
+                    next = readTuple(buf, i);
+                } else if (tuples[i] != null) {
+                    if (predicate.filter(tuples[i])) {
+                        next = tuples[i];
+                    }
+                } else if (readField(buf, i, predicate.getField()).compare(predicate.getOp(), predicate.getOperand())) {
+                    next = readTuple(buf, i);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = next;
+            next = null;
+            return t;
         }
-        return tupleList.iterator();
     }
 
 }
-
@@ -5,6 +5,7 @@ import simpledb.execution.Predicate;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single integer.
@@ -45,6 +46,18 @@ public class IntField implements Field {
         dos.writeInt(value);
     }
 
+    public void serialize(ByteBuffer buf) {
+        buf.putInt(value);
+    }
+
+    public void serializeCompact(ByteBuffer buf) {
+        buf.putInt(value);
+    }
+
+    public int getCompactLen() {
+        return 4;
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
@@ -0,0 +1,161 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LRUCache replaces the least recently used clean, unpinned page. Every hit
+ * moves the page to the head of a doubly-linked list, so all accesses
+ * synchronize on the cache.
+ *
+ * @see BufferPool.ReplacementPolicy#LRU
+ */
+class LRUCache extends PageCache {
+
+    static class Node {
+        PageId key;
+        Page val;
+        Node pre;
+        Node next;
+        public Node(PageId key, Page val) {
+            this.key = key;
+            this.val = val;
+        }
+    }
+    int size;
+    ConcurrentHashMap<PageId, Node> map;
+    Node head = new Node(null, null);
+    Node tail = new Node(null, null);
+
+    public LRUCache(int capacity) {
+        super(capacity);
+        map = new ConcurrentHashMap<>();
+        head.next = tail;
+        tail.pre = head;
+        size = 0;
+    }
+
+    @Override
+    public synchronized Page get(PageId key) {
+        if(map.containsKey(key)) {
+            remove(map.get(key));
+            moveToHead(map.get(key));
+            return map.get(key).val;
+        }
+        else {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void put(PageId key, Page value) throws DbException {
+        Node node = map.get(key);
+        if(node != null) {
+            remove(node);
+            if(node.val != value) {
+                removed(key, node.val);
+            }
+            node.val = value;
+        }
+        else {
+            if(size >= capacity && !evict()) {
+                throw new DbException("all " + capacity + " pages in the buffer pool are pinned or dirty");
+            }
+            node = new Node(key, value);
+            map.put(key, node);
+            size++;
+        }
+        moveToHead(node);
+    }
+
+    @Override
+    public synchronized boolean offer(PageId key, Page value) {
+        if(map.containsKey(key)) {
+            return false;
+        }
+        if(size >= capacity && !evict()) {
+            return false;
+        }
+        Node newNode = new Node(key, value);
+        moveToHead(newNode);
+        map.put(key, newNode);
+        size++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean evict() {
+        Node removeNode = tail.pre;
+        //丢失不是脏页的页
+        while (removeNode != head && !isEvictable(removeNode.key, removeNode.val)) {
+            removeNode = removeNode.pre;
+        }
+        if(removeNode == head) {
+            return false;
+        }
+        map.remove(removeNode.key);
+        remove(removeNode);
+        size--;
+        evicted(removeNode.key, removeNode.val);
+        return true;
+    }
+
+    @Override
+    public boolean contains(PageId key) {
+        return map.containsKey(key);
+    }
+
+    public synchronized void remove(Node node) {
+        Node pre = node.pre;
+        Node next = node.next;
+        pre.next = next;
+        next.pre = pre;
+    }
+
+    public synchronized void moveToHead(Node node) {
+        Node next = head.next;
+
+        next.pre = node;
+        node.next = next;
+
+        head.next = node;
+        node.pre = head;
+    }
+
+    @Override
+    public synchronized void removeByKey(PageId key) {
+        Node node = map.remove(key);
+        if(node != null) {
+            remove(node);
+            size--;
+            removed(key, node.val);
+        }
+        dropPins(key);
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return size;
+    }
+
+    @Override
+    public synchronized List<PageId> getKeys() {
+        List<PageId> keys = new ArrayList<>(size);
+        for(Node node = head.next; node != tail; node = node.next) {
+            keys.add(node.key);
+        }
+        return keys;
+    }
+
+    @Override
+    public List<Page> getPages() {
+        List<Page> pages = new ArrayList<>();
+        for(Node node : map.values()) {
+            pages.add(node.val);
+        }
+        return pages;
+    }
+}
@@ -2,6 +2,8 @@ package simpledb.storage;
 
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -35,6 +37,15 @@ public interface Page {
      */
     void markDirty(boolean dirty, TransactionId tid);
 
+    /**
+     * Returns the number of times this page has been marked dirty. Writers
+     * mark a page dirty after every change, so a page whose count changed
+     * while it was written out may hold changes the write missed.
+     * Implementations update the count and the dirty state together, with
+     * the page's monitor held.
+     */
+    long getDirtyCount();
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -48,6 +59,18 @@ public interface Page {
 
     byte[] getPageData();
 
+    /**
+     * Returns the contents of this page, in the format of getPageData, as a
+     * buffer positioned at the start of the page. Pages that keep their
+     * serialized form may return a read-only view of it instead of a copy;
+     * the buffer is then only valid until the page is next modified.
+     *
+     * @return A buffer holding the bytes of this page.
+     */
+    default ByteBuffer getPageBuffer() {
+        return ByteBuffer.wrap(getPageData());
+    }
+
     /**
      * Provide a representation of this page before any modifications were made
      * to it.  Used by recovery.
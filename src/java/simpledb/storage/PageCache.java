@@ -0,0 +1,215 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * PageCache is one shard of the BufferPool's page table: a map from PageId to
+ * the cached Page that holds at most a fixed number of pages, together with
+ * the replacement policy that decides which page makes room for a new one.
+ * <p>
+ * Only clean pages are ever chosen for replacement, since the BufferPool
+ * runs in NO STEAL mode, and pages may be pinned to keep them cached while
+ * they are in use. Pin counts are kept in a map guarded by the cache's
+ * monitor; subclasses that do not lock on every access keep their own.
+ *
+ * @Threadsafe
+ */
+abstract class PageCache {
+
+    /**
+     * Maximum number of pages in this cache. It may change while the cache
+     * is in use; a cache that holds more pages than that gives up the excess
+     * as its pages become evictable (see {@link #trim}).
+     */
+    volatile int capacity;
+
+    /**
+     * Pin counts of the cached pages that are pinned.
+     */
+    private final Map<PageId, Integer> pinCounts;
+
+    /**
+     * Told about every page that leaves the cache.
+     */
+    private volatile BiConsumer<PageId, Page> removalListener;
+
+    /**
+     * Told about every page the replacement policy evicts.
+     */
+    private volatile Consumer<PageId> evictionListener;
+
+    PageCache(int capacity) {
+        this.capacity = capacity;
+        this.pinCounts = new HashMap<>();
+    }
+
+    /**
+     * Sets the listener that is called with every page that leaves the
+     * cache, whether it is evicted, removed, or replaced by another version
+     * of the page. It is called holding the cache's monitor.
+     */
+    void setRemovalListener(BiConsumer<PageId, Page> removalListener) {
+        this.removalListener = removalListener;
+    }
+
+    /**
+     * Reports a page that has left the cache to the removal listener.
+     */
+    void removed(PageId key, Page page) {
+        BiConsumer<PageId, Page> listener = removalListener;
+        if(listener != null) {
+            listener.accept(key, page);
+        }
+    }
+
+    /**
+     * Sets the listener that is called with every page the replacement
+     * policy evicts, after the removal listener. It is called holding the
+     * cache's monitor.
+     */
+    void setEvictionListener(Consumer<PageId> evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * Reports a page the replacement policy evicted to both listeners.
+     */
+    void evicted(PageId key, Page page) {
+        removed(key, page);
+        Consumer<PageId> listener = evictionListener;
+        if(listener != null) {
+            listener.accept(key);
+        }
+    }
+
+    /**
+     * Returns the cached page with the specified id and records the access,
+     * or returns null if it is not cached.
+     */
+    abstract Page get(PageId key);
+
+    /**
+     * Returns true if the specified page is cached. Does not count as an
+     * access.
+     */
+    abstract boolean contains(PageId key);
+
+    /**
+     * Caches a page, replacing any cached version of it and evicting another
+     * page if the cache is full. A replaced version keeps its pins.
+     *
+     * @throws DbException if the cache is full and every page is pinned or
+     *                     dirty
+     */
+    abstract void put(PageId key, Page value) throws DbException;
+
+    /**
+     * Inserts a page only if there is a free frame or a clean page to
+     * evict; never displaces a page that is already cached.
+     *
+     * @return true if the page was inserted
+     */
+    abstract boolean offer(PageId key, Page value);
+
+    /**
+     * Drops the specified page from the cache, if it is cached, together
+     * with its pins.
+     */
+    abstract void removeByKey(PageId key);
+
+    /**
+     * Evicts one clean, unpinned page, chosen by the replacement policy.
+     *
+     * @return false if every page is pinned or dirty
+     */
+    abstract boolean evict();
+
+    /**
+     * Returns the cached page with the specified id and pins it, so that it
+     * is not evicted until it is unpinned as many times as it was pinned.
+     * Counts as an access.
+     *
+     * @return the page, or null if it is not cached
+     */
+    synchronized Page pin(PageId key) {
+        Page page = get(key);
+        if(page != null) {
+            pinCounts.merge(key, 1, Integer::sum);
+        }
+        return page;
+    }
+
+    /**
+     * Releases one pin of the specified page. Does nothing if the page is not
+     * pinned.
+     */
+    synchronized void unpin(PageId key) {
+        pinCounts.computeIfPresent(key, (k, n) -> n == 1 ? null : n - 1);
+    }
+
+    /**
+     * Returns true if the specified page is pinned.
+     */
+    synchronized boolean isPinned(PageId key) {
+        return pinCounts.containsKey(key);
+    }
+
+    /**
+     * Drops all pins of a page that is removed from the cache.
+     */
+    synchronized void dropPins(PageId key) {
+        pinCounts.remove(key);
+    }
+
+    /**
+     * Changes the maximum number of pages in this cache. Shrinking does not
+     * evict anything by itself.
+     */
+    synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Evicts clean, unpinned pages while the cache holds more pages than its
+     * capacity, but no more than maxPages of them.
+     *
+     * @return the number of pages evicted
+     */
+    synchronized int trim(int maxPages) {
+        int evicted = 0;
+        while(evicted < maxPages && getSize() > capacity && evict()) {
+            evicted++;
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns the number of cached pages.
+     */
+    abstract int getSize();
+
+    /**
+     * Returns a snapshot of the cached pages.
+     */
+    abstract List<Page> getPages();
+
+    /**
+     * Returns the ids of the cached pages in replacement order: the page the
+     * policy would evict last comes first.
+     */
+    abstract List<PageId> getKeys();
+
+    /**
+     * Returns true if the page may be evicted to make room for another. Must
+     * be called holding the cache's monitor.
+     */
+    boolean isEvictable(PageId key, Page page) {
+        return page.isDirty() == null && !pinCounts.containsKey(key);
+    }
+}
@@ -65,6 +65,8 @@ public class RecordId implements Serializable {
     @Override
     public int hashCode() {
         // TODO: some code goes here
-        return this.pid.getTableId()*100+this.pid.getPageNumber()*10+this.tupleno;
+        // tuple locks are kept in hash maps by RecordId, so the slots of
+        // different pages must not collide
+        return 31 * pid.hashCode() + tupleno;
     }
 }
@@ -0,0 +1,395 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedHeapPage is a HeapPage that stores tuples as variable-length
+ * records, so that strings only take as many bytes as they have characters
+ * instead of the full {@link Type#STRING_LEN}. It is used by HeapFiles
+ * created with {@link HeapFile.PageFormat#SLOTTED}.
+ * <p>
+ * The page starts with a four byte header holding the number of entries in
+ * the slot directory and the offset of the start of the record area, each as
+ * an unsigned short. The slot directory follows, with the offset and the
+ * length of one record per entry (an offset of 0 marks an empty slot).
+ * Records are written in the compact format of {@link Tuple#serializeCompact}
+ * and fill the page from the end towards the directory. A page of zeroes is
+ * an empty page.
+ * <p>
+ * A tuple keeps its slot number, and so its RecordId, for as long as it is
+ * on the page: deleting a tuple only clears its directory entry, and the
+ * space of deleted records is reclaimed by moving the remaining records
+ * together when an insert needs it.
+ *
+ * @see HeapPage
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    static final int HEADER_SIZE = 4;
+
+    static final int SLOT_SIZE = 4;
+
+    /**
+     * Page offsets are stored as unsigned shorts.
+     */
+    static final int MAX_PAGE_SIZE = 1 << 16;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.clone()));
+    }
+
+    /**
+     * Create a SlottedHeapPage from a buffer holding the page as read from
+     * disk, taking ownership of the buffer's contents.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+        if (BufferPool.getPageSize() > MAX_PAGE_SIZE) {
+            throw new IOException("slotted pages can be at most " + MAX_PAGE_SIZE + " bytes");
+        }
+    }
+
+    /**
+     * @return the largest number of tuples that fit on a page, i.e. the
+     *         number of tuples of the smallest possible size
+     */
+    @Override
+    int getNumTuples() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (SLOT_SIZE + getMinRecordLen(td));
+    }
+
+    @Override
+    int getHeaderSize() {
+        return HEADER_SIZE;
+    }
+
+    @Override
+    HeapPage newPage(ByteBuffer pageData) throws IOException {
+        return new SlottedHeapPage(pid, pageData);
+    }
+
+    /**
+     * @return the number of bytes taken by the smallest tuple of td
+     */
+    static int getMinRecordLen(TupleDesc td) {
+        int len = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            len += td.getFieldType(i).getMinCompactLen();
+        }
+        return len;
+    }
+
+    static int getSlotCount(ByteBuffer page) {
+        return page.getShort(0) & 0xFFFF;
+    }
+
+    static int getRecordStart(ByteBuffer page) {
+        int start = page.getShort(2) & 0xFFFF;
+        // a page of zeroes has no records
+        return start == 0 ? page.limit() : start;
+    }
+
+    static int getRecordOffset(ByteBuffer page, int slotId) {
+        return page.getShort(HEADER_SIZE + slotId * SLOT_SIZE) & 0xFFFF;
+    }
+
+    static int getRecordLen(ByteBuffer page, int slotId) {
+        return page.getShort(HEADER_SIZE + slotId * SLOT_SIZE + 2) & 0xFFFF;
+    }
+
+    private static void setSlotCount(ByteBuffer page, int count) {
+        page.putShort(0, (short) count);
+    }
+
+    private static void setRecordStart(ByteBuffer page, int start) {
+        page.putShort(2, (short) (start == page.limit() ? 0 : start));
+    }
+
+    private static void setSlot(ByteBuffer page, int slotId, int offset, int len) {
+        page.putShort(HEADER_SIZE + slotId * SLOT_SIZE, (short) offset);
+        page.putShort(HEADER_SIZE + slotId * SLOT_SIZE + 2, (short) len);
+    }
+
+    /**
+     * @return the number of bytes between the slot directory and the records
+     */
+    private static int getFreeSpace(ByteBuffer page) {
+        return getRecordStart(page) - HEADER_SIZE - SLOT_SIZE * getSlotCount(page);
+    }
+
+    /**
+     * Adds t to a page that is being built up, in a new slot at the end of
+     * the directory. Used to write pages without going through the catalog,
+     * e.g. by {@link HeapFileEncoder}.
+     *
+     * @param page a page-sized buffer holding a slotted page, initially zeroes
+     * @param t    the tuple to add
+     * @return false if t does not fit on the page
+     */
+    public static boolean appendRecord(ByteBuffer page, Tuple t) {
+        int len = t.getCompactSize();
+        if (len + SLOT_SIZE > getFreeSpace(page)) {
+            return false;
+        }
+        int slotId = getSlotCount(page);
+        int start = getRecordStart(page) - len;
+        ByteBuffer buf = page.duplicate();
+        buf.position(start);
+        t.serializeCompact(buf);
+        setSlotCount(page, slotId + 1);
+        setRecordStart(page, start);
+        setSlot(page, slotId, start, len);
+        return true;
+    }
+
+    /**
+     * @return the number of bytes held by deleted records that compaction
+     *         would give back
+     */
+    private int getFragmentedSpace() {
+        int live = 0;
+        int count = getSlotCount(data);
+        for (int i = 0; i < count; i++) {
+            live += getRecordLen(data, i);
+        }
+        return data.limit() - getRecordStart(data) - live;
+    }
+
+    /**
+     * Moves all records to the end of the page, so that the space of deleted
+     * records becomes free space. Slot numbers do not change.
+     */
+    private void compact() {
+        byte[] old = getPageData();
+        int count = getSlotCount(data);
+        int end = data.limit();
+        for (int i = HEADER_SIZE + SLOT_SIZE * count; i < end; i++) {
+            data.put(i, (byte) 0);
+        }
+        for (int i = 0; i < count; i++) {
+            int offset = getRecordOffset(data, i);
+            if (offset == 0) {
+                continue;
+            }
+            int len = getRecordLen(data, i);
+            end -= len;
+            ByteBuffer buf = data.duplicate();
+            buf.position(end);
+            buf.put(old, offset, len);
+            setSlot(data, i, end, len);
+        }
+        setRecordStart(data, end);
+    }
+
+    /**
+     * @return the first empty slot in the directory, or the number of slots
+     *         if there is none
+     */
+    private int getFirstEmptySlot() {
+        int count = getSlotCount(data);
+        for (int i = 0; i < count; i++) {
+            if (getRecordOffset(data, i) == 0) {
+                return i;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    Field readField(ByteBuffer buf, int slotId, int fieldIndex) throws NoSuchElementException {
+        buf.position(getRecordOffset(data, slotId));
+        try {
+            for (int j = 0; j < fieldIndex; j++) {
+                buf.position(buf.position() + td.getFieldType(j).skipCompact(buf));
+            }
+            return td.getFieldType(fieldIndex).parseCompact(buf);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    @Override
+    Tuple readTuple(ByteBuffer buf, int slotId) throws NoSuchElementException {
+        Tuple t = tuples[slotId];
+        if (t != null) {
+            return t;
+        }
+
+        t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        buf.position(getRecordOffset(data, slotId));
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).parseCompact(buf));
+            }
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        tuples[slotId] = t;
+        return t;
+    }
+
+    @Override
+    BitSet getUsedSlots() {
+        BitSet used = new BitSet();
+        int count = getSlotCount(data);
+        for (int i = 0; i < count; i++) {
+            if (getRecordOffset(data, i) != 0) {
+                used.set(i);
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    @Override
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getSlotCount(data) && getRecordOffset(data, i) != 0;
+    }
+
+    /**
+     * Returns the number of tuples of the smallest possible size that could
+     * still be added to this page; larger tuples may fit fewer times. A page
+     * is full when this is 0.
+     */
+    @Override
+    public int getNumUnusedSlots() {
+        int count = getSlotCount(data);
+        int used = getUsedSlots().cardinality();
+        int available = getFreeSpace(data) + getFragmentedSpace();
+        int minLen = getMinRecordLen(td);
+        // empty directory entries are reused before new ones are added
+        int reused = Math.min(count - used, available / minLen);
+        int added = (available - reused * minLen) / (minLen + SLOT_SIZE);
+        return Math.min(reused + added, numSlots - used);
+    }
+
+    @Override
+    public boolean hasRoomFor(Tuple t) {
+        int slotId = getFirstEmptySlot();
+        boolean newSlot = slotId == getSlotCount(data);
+        int needed = t.getCompactSize() + (newSlot ? SLOT_SIZE : 0);
+        return slotId < numSlots && needed <= getFreeSpace(data) + getFragmentedSpace();
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or a new
+     * one; the tuple should be updated to reflect that it is now stored on
+     * this page.
+     *
+     * @param t The tuple to add.
+     * @throws DbException if the tuple does not fit on the page or tupledesc
+     *                     is mismatch.
+     */
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        int slotId = getFirstEmptySlot();
+        if (slotId >= numSlots) {
+            throw new DbException("the page is full!");
+        }
+        insertTuple(t, slotId);
+    }
+
+    /**
+     * Adds the specified tuple to the page in the specified slot, adding
+     * empty directory entries up to it if needed, e.g. to put back a deleted
+     * tuple where it was; the tuple should be updated to reflect that it is
+     * now stored on this page.
+     *
+     * @param t      The tuple to add.
+     * @param slotId The slot to add it in.
+     * @throws DbException if the slot is not empty, the tuple does not fit on
+     *                     the page or tupledesc is mismatch.
+     */
+    @Override
+    public void insertTuple(Tuple t, int slotId) throws DbException {
+        if (slotId < 0 || slotId >= numSlots || isSlotUsed(slotId)) {
+            throw new DbException("slot " + slotId + " is not empty!");
+        }
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupleDesc is mismatch!");
+        }
+        int count = getSlotCount(data);
+        int len = t.getCompactSize();
+        int newSlots = Math.max(0, slotId + 1 - count);
+        int needed = len + SLOT_SIZE * newSlots;
+        if (needed > getFreeSpace(data) + getFragmentedSpace()) {
+            throw new DbException("the page is full!");
+        }
+        prepareWrite();
+        // compacted before the directory grows, which would otherwise
+        // overlay the first record when the free space is fragmented
+        if (needed > getFreeSpace(data)) {
+            compact();
+        }
+        if (newSlots > 0) {
+            // the free space is zeroes, so the new entries are empty until filled
+            setSlotCount(data, slotId + 1);
+        }
+        int start = getRecordStart(data) - len;
+        ByteBuffer buf = data.duplicate();
+        buf.position(start);
+        t.serializeCompact(buf);
+        setRecordStart(data, start);
+        setSlot(data, slotId, start, len);
+        t.setRecordId(new RecordId(pid, slotId));
+        // the caller keeps t, so it is decoded again when it is read
+        tuples[slotId] = null;
+    }
+
+    /**
+     * Delete the specified tuple from the page; its slot becomes empty and
+     * may be reused by a later insert.
+     *
+     * @param t The tuple to delete
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())
+                || rid.getTupleNumber() < 0 || rid.getTupleNumber() >= getSlotCount(data)) {
+            throw new DbException("Tuple does not exist !!!");
+        }
+        int slotId = rid.getTupleNumber();
+        if (!isSlotUsed(slotId)) {
+            throw new DbException("the tuple is already empty !!!");
+        }
+        prepareWrite();
+        int offset = getRecordOffset(data, slotId);
+        int len = getRecordLen(data, slotId);
+        for (int i = offset; i < offset + len; i++) {
+            data.put(i, (byte) 0);
+        }
+        setSlot(data, slotId, 0, 0);
+        tuples[slotId] = null;
+        if (offset == getRecordStart(data)) {
+            setRecordStart(data, offset + len);
+        }
+
+        // drop empty entries from the end of the directory
+        int count = getSlotCount(data);
+        while (count > 0 && getRecordOffset(data, count - 1) == 0) {
+            count--;
+        }
+        setSlotCount(data, count);
+    }
+}
@@ -5,6 +5,7 @@ import simpledb.execution.Predicate;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -67,6 +68,40 @@ public class StringField implements Field {
             dos.write((byte) 0);
     }
 
+    /**
+     * Write this string to buf, in the format of {@link #serialize(DataOutputStream)}.
+     *
+     * @param buf Where the string is written
+     */
+    public void serialize(ByteBuffer buf) {
+        String s = value;
+        int overflow = maxSize - s.length();
+        if (overflow < 0) {
+            s = s.substring(0, maxSize);
+        }
+        buf.putInt(s.length());
+        for (int i = 0; i < s.length(); i++)
+            buf.put((byte) s.charAt(i));
+        while (overflow-- > 0)
+            buf.put((byte) 0);
+    }
+
+    /**
+     * Write this string to buf without padding: four bytes of string length
+     * followed by the string.
+     *
+     * @param buf Where the string is written
+     */
+    public void serializeCompact(ByteBuffer buf) {
+        buf.putInt(value.length());
+        for (int i = 0; i < value.length(); i++)
+            buf.put((byte) value.charAt(i));
+    }
+
+    public int getCompactLen() {
+        return 4 + value.length();
+    }
+
     /**
      * Compare the specified field to the value of this Field. Return semantics
      * are as specified by Field.compare
@@ -1,6 +1,7 @@
 package simpledb.storage;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -117,6 +118,31 @@ public class Tuple implements Serializable {
         return stringBuilder.toString();
     }
 
+    /**
+     * @return the number of bytes this tuple takes in the compact,
+     *         variable-length format used by slotted pages
+     * @see Field#serializeCompact
+     */
+    public int getCompactSize() {
+        int size = 0;
+        for (Field field : fields) {
+            size += field.getCompactLen();
+        }
+        return size;
+    }
+
+    /**
+     * Writes the fields of this tuple, one after another, to buf in the
+     * compact format used by slotted pages.
+     *
+     * @param buf the buffer to write to, starting at its current position
+     */
+    public void serializeCompact(ByteBuffer buf) {
+        for (Field field : fields) {
+            field.serializeCompact(buf);
+        }
+    }
+
     /**
      * @return An iterator which iterates over all the fields of this tuple
      */
@@ -160,6 +160,23 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * @param i index of the field. It must be a valid index.
+     * @return the offset (in bytes) of the ith field from the start of a
+     *         serialized tuple corresponding to this TupleDesc.
+     * @throws NoSuchElementException if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if(i < 0 || i >= numFields()) {
+            throw new NoSuchElementException("no field " + i);
+        }
+        int offset = 0;
+        for(int j = 0; j < i; j++) {
+            offset += tdItems.get(j).fieldType.getLen();
+        }
+        return offset;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
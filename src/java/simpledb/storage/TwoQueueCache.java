@@ -0,0 +1,226 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.index.BTreePageId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TwoQueueCache is a scan-resistant cache based on the 2Q algorithm of
+ * Johnson and Shasha. A page read for the first time goes into a small
+ * probationary FIFO queue, and further hits while it is there do not promote
+ * it, so the pages of a sequential scan, which are each used once, only ever
+ * displace each other. When a page leaves the probationary queue its id is
+ * remembered for a while; if the page is read again in that time it is
+ * considered hot and goes into the main queue, which is managed as LRU and
+ * is only evicted from when the probationary queue is at or below its share
+ * of the cache.
+ * <p>
+ * The upper levels of B+ trees (root pointer, internal and header pages)
+ * are used by every lookup and go straight into the main queue.
+ *
+ * @see BufferPool.ReplacementPolicy#TWO_Q
+ */
+class TwoQueueCache extends PageCache {
+
+    /**
+     * Pages seen once, oldest first.
+     */
+    private final LinkedHashMap<PageId, Page> probation;
+
+    /**
+     * Hot pages, least recently used first.
+     */
+    private final LinkedHashMap<PageId, Page> main;
+
+    /**
+     * Ids of pages recently evicted from the probationary queue, oldest first.
+     */
+    private final LinkedHashSet<PageId> ghosts;
+
+    /**
+     * Share of the cache the probationary queue may take before it is
+     * evicted from in preference to the main queue.
+     */
+    private int probationCapacity;
+
+    private int ghostCapacity;
+
+    TwoQueueCache(int capacity) {
+        super(capacity);
+        probation = new LinkedHashMap<>();
+        main = new LinkedHashMap<>(16, 0.75f, true);
+        ghosts = new LinkedHashSet<>();
+        probationCapacity = Math.max(1, capacity / 4);
+        ghostCapacity = Math.max(1, capacity / 2);
+    }
+
+    @Override
+    synchronized void setCapacity(int capacity) {
+        super.setCapacity(capacity);
+        probationCapacity = Math.max(1, capacity / 4);
+        ghostCapacity = Math.max(1, capacity / 2);
+    }
+
+    @Override
+    synchronized Page get(PageId key) {
+        Page page = main.get(key);
+        return page != null ? page : probation.get(key);
+    }
+
+    @Override
+    synchronized boolean contains(PageId key) {
+        return main.containsKey(key) || probation.containsKey(key);
+    }
+
+    @Override
+    synchronized void put(PageId key, Page value) throws DbException {
+        if(replace(key, value)) {
+            return;
+        }
+        if(getSize() >= capacity && !evict()) {
+            throw new DbException("all " + capacity + " pages in the buffer pool are pinned or dirty");
+        }
+        if(ghosts.remove(key) || isHot(key)) {
+            main.put(key, value);
+        } else {
+            probation.put(key, value);
+        }
+    }
+
+    @Override
+    synchronized boolean offer(PageId key, Page value) {
+        if(contains(key)) {
+            return false;
+        }
+        if(getSize() >= capacity && !evict()) {
+            return false;
+        }
+        // a page read ahead has not been used yet, so it is not hot even if
+        // it was recently evicted
+        if(isHot(key)) {
+            main.put(key, value);
+        } else {
+            probation.put(key, value);
+        }
+        return true;
+    }
+
+    @Override
+    synchronized void removeByKey(PageId key) {
+        Page page = main.remove(key);
+        if(page == null) {
+            page = probation.remove(key);
+        }
+        if(page != null) {
+            removed(key, page);
+        }
+        dropPins(key);
+    }
+
+    @Override
+    synchronized int getSize() {
+        return probation.size() + main.size();
+    }
+
+    @Override
+    synchronized List<Page> getPages() {
+        List<Page> pages = new ArrayList<>(probation.values());
+        pages.addAll(main.values());
+        return pages;
+    }
+
+    @Override
+    synchronized List<PageId> getKeys() {
+        // most recently used main pages, then the newest probationary ones
+        List<PageId> keys = new ArrayList<>(main.keySet());
+        Collections.reverse(keys);
+        List<PageId> newest = new ArrayList<>(probation.keySet());
+        Collections.reverse(newest);
+        keys.addAll(newest);
+        return keys;
+    }
+
+    /**
+     * Replaces a cached version of the page in place.
+     *
+     * @return false if the page is not cached
+     */
+    private boolean replace(PageId key, Page value) {
+        Page old;
+        if(main.containsKey(key)) {
+            old = main.put(key, value);
+        } else {
+            // keep its place in the queue
+            old = probation.replace(key, value);
+        }
+        if(old == null) {
+            return false;
+        }
+        if(old != value) {
+            removed(key, old);
+        }
+        return true;
+    }
+
+    /**
+     * Evicts a clean, unpinned page, from the probationary queue if it holds
+     * more than its share of the cache and from the main queue otherwise,
+     * falling back to the other queue if every page in the first one is
+     * pinned or dirty.
+     */
+    @Override
+    synchronized boolean evict() {
+        if(probation.size() > probationCapacity) {
+            return evictProbation() || evictFrom(main) != null;
+        }
+        return evictFrom(main) != null || evictProbation();
+    }
+
+    private boolean evictProbation() {
+        PageId victim = evictFrom(probation);
+        if(victim == null) {
+            return false;
+        }
+        ghosts.add(victim);
+        Iterator<PageId> it = ghosts.iterator();
+        while(ghosts.size() > ghostCapacity) {
+            it.next();
+            it.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Removes the oldest clean, unpinned page of a queue.
+     *
+     * @return the id of the evicted page, or null if every page is pinned or
+     *         dirty
+     */
+    private PageId evictFrom(LinkedHashMap<PageId, Page> queue) {
+        Iterator<Map.Entry<PageId, Page>> it = queue.entrySet().iterator();
+        while(it.hasNext()) {
+            Map.Entry<PageId, Page> entry = it.next();
+            if(isEvictable(entry.getKey(), entry.getValue())) {
+                it.remove();
+                evicted(entry.getKey(), entry.getValue());
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true for pages that are hot however often they have been used,
+     * i.e. the upper levels of B+ trees.
+     */
+    private static boolean isHot(PageId pid) {
+        return pid instanceof BTreePageId && ((BTreePageId) pid).pgcateg() != BTreePageId.LEAF;
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * VersionStore keeps the committed versions of pages that commits have
+ * replaced, for the snapshot reads of a BufferPool. A version is a copy of a
+ * page as it was until the commit with a certain timestamp replaced it, so
+ * that a snapshot taken before that commit can still read it.
+ * <p>
+ * Versions are only kept while a snapshot may need them: the BufferPool adds
+ * them only while snapshots are running, and prunes those replaced before
+ * the oldest running snapshot was taken.
+ *
+ * @Threadsafe
+ */
+class VersionStore {
+
+    /**
+     * A page as it was until a commit replaced it.
+     */
+    private static final class Version {
+        final Page page;
+        final long endTs;
+
+        Version(Page page, long endTs) {
+            this.page = page;
+            this.endTs = endTs;
+        }
+    }
+
+    /**
+     * The versions of each page, oldest first; each deque is guarded by its
+     * own monitor.
+     */
+    private final ConcurrentMap<PageId, Deque<Version>> versions;
+
+    VersionStore() {
+        this.versions = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Adds the version of a page that the commit with the specified
+     * timestamp replaced. Commits must add their versions in timestamp
+     * order.
+     */
+    void add(PageId pid, Page before, long endTs) {
+        Deque<Version> chain = versions.computeIfAbsent(pid, p -> new ArrayDeque<>(2));
+        synchronized(chain) {
+            chain.addLast(new Version(before, endTs));
+        }
+    }
+
+    /**
+     * Returns the version of a page a snapshot taken at the specified
+     * timestamp sees, or null if no commit since has replaced the page, in
+     * which case the snapshot sees its latest committed version.
+     */
+    Page get(PageId pid, long snapshotTs) {
+        Deque<Version> chain = versions.get(pid);
+        if(chain == null) {
+            return null;
+        }
+        synchronized(chain) {
+            for(Version version : chain) {
+                if(version.endTs > snapshotTs) {
+                    return version.page;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops the versions no snapshot taken at or after the specified
+     * timestamp can see.
+     */
+    void prune(long oldestSnapshotTs) {
+        for(Iterator<Deque<Version>> it = versions.values().iterator(); it.hasNext(); ) {
+            Deque<Version> chain = it.next();
+            synchronized(chain) {
+                while(!chain.isEmpty() && chain.peekFirst().endTs <= oldestSnapshotTs) {
+                    chain.removeFirst();
+                }
+                if(chain.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every version.
+     */
+    void clear() {
+        versions.clear();
+    }
+
+    /**
+     * Returns the number of versions kept.
+     */
+    int size() {
+        int size = 0;
+        for(Deque<Version> chain : versions.values()) {
+            synchronized(chain) {
+                size += chain.size();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,887 @@
+package simpledb.transaction;
+
+import simpledb.common.DeadlockException;
+import simpledb.common.Permissions;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockManager keeps the page and tuple locks that isolate transactions from
+ * each other. A transaction locks a page in shared mode to read it and in
+ * exclusive mode to write it, and keeps its locks until it completes (strict
+ * two-phase locking).
+ * <p>
+ * A transaction can instead lock single tuples, by {@link RecordId}, so that
+ * transactions changing different tuples of a page do not wait for each
+ * other. It first takes an intention lock on the page, which conflicts with
+ * shared and exclusive page locks, so that transactions that lock whole
+ * pages, e.g. scans, still see them consistently. Once a transaction holds
+ * too many tuple locks on a page, or in a table, the next tuple it asks for
+ * escalates them to page locks, which keeps the number of locks bounded.
+ * <p>
+ * Requests that conflict with the holders of a lock wait in a FIFO queue,
+ * and a new request is only granted immediately if nobody is waiting, so
+ * a stream of readers cannot starve a writer. A transaction that holds a
+ * shared lock and asks for an exclusive one upgrades in place: it goes to
+ * the head of the queue and is granted as soon as it is the only holder.
+ * <p>
+ * Each transaction's locks are also recorded in a lock set, so that
+ * {@link #releaseAll} takes time proportional to the number of locks held.
+ * <p>
+ * Deadlocks are detected with a waits-for graph, which has an edge from each
+ * waiting transaction to every transaction it waits for: the holders of the
+ * lock and the requests queued ahead of it that conflict with its request.
+ * The edges of a lock's waiters are updated whenever its holders or queue
+ * change, and the graph is searched for a cycle whenever a transaction gets
+ * a new edge. The youngest transaction in a cycle, i.e. the one with the
+ * highest id, is aborted with a {@link DeadlockException}.
+ * <p>
+ * Alternatively, deadlocks can be prevented by ordering transactions by
+ * their ids, which saves maintaining the graph and searching it; see
+ * {@link DeadlockPolicy}. Waiting can additionally be bounded by a lock
+ * timeout, which is off by default.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /**
+     * The modes a page or tuple can be locked in. Tuples are only locked in
+     * SHARED or EXCLUSIVE mode; the intention modes announce, on a page,
+     * that tuples of the page are locked in that mode.
+     */
+    public enum LockMode {
+        INTENTION_SHARED, INTENTION_EXCLUSIVE, SHARED, SHARED_INTENTION_EXCLUSIVE, EXCLUSIVE;
+
+        /**
+         * Which modes may be held by two transactions at once, by ordinal.
+         */
+        private static final boolean[][] COMPATIBLE = {
+                {true, true, true, true, false},
+                {true, true, false, false, false},
+                {true, false, true, false, false},
+                {true, false, false, false, false},
+                {false, false, false, false, false},
+        };
+
+        /**
+         * Returns the mode needed to access a page with the specified
+         * permissions.
+         */
+        public static LockMode of(Permissions perm) {
+            return perm == Permissions.READ_WRITE ? EXCLUSIVE : SHARED;
+        }
+
+        /**
+         * Returns true if holding this mode implies holding the other.
+         */
+        boolean covers(LockMode other) {
+            return this == other || this == EXCLUSIVE || other == INTENTION_SHARED
+                    || (this == SHARED_INTENTION_EXCLUSIVE && other != EXCLUSIVE);
+        }
+
+        /**
+         * Returns the weakest mode that covers both this mode and the other.
+         */
+        LockMode join(LockMode other) {
+            if (covers(other)) {
+                return this;
+            }
+            return other.covers(this) ? other : SHARED_INTENTION_EXCLUSIVE;
+        }
+
+        /**
+         * Returns true if two transactions may hold the modes at once.
+         */
+        boolean compatibleWith(LockMode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /**
+         * Returns true if holding a page in this mode implies holding each of
+         * its tuples in the specified mode.
+         */
+        boolean coversTuples(LockMode tupleMode) {
+            return this == EXCLUSIVE
+                    || (tupleMode == SHARED && (this == SHARED || this == SHARED_INTENTION_EXCLUSIVE));
+        }
+
+        /**
+         * Returns the mode a page is locked in before locking its tuples in
+         * this mode.
+         */
+        LockMode intention() {
+            return this == SHARED ? INTENTION_SHARED : INTENTION_EXCLUSIVE;
+        }
+    }
+
+    /**
+     * How deadlocks are dealt with. The prevention policies treat a
+     * transaction with a lower id as older and let only one direction of
+     * waiting happen, so that no cycle of waiting transactions can form.
+     * They abort more transactions than detection does, since they abort
+     * whenever waiting could lead to a deadlock.
+     */
+    public enum DeadlockPolicy {
+        /**
+         * Keep a waits-for graph and abort the youngest transaction of a
+         * cycle once one forms.
+         */
+        DETECT,
+        /**
+         * An older transaction waits for younger ones; a younger one asking
+         * for a lock an older one holds or waits for aborts ("dies").
+         */
+        WAIT_DIE,
+        /**
+         * A younger transaction waits for older ones; an older one asking
+         * for a lock a younger one holds or waits for aborts the younger
+         * one ("wounds" it), which happens as soon as the younger one waits
+         * for a lock or asks for another one.
+         */
+        WOUND_WAIT;
+
+        /**
+         * The system property that selects the policy of the lock managers
+         * created with the default constructor.
+         */
+        public static final String PROPERTY = "simpledb.deadlockPolicy";
+
+        /**
+         * Returns the policy named by the {@value #PROPERTY} system
+         * property, or DETECT if it is not set.
+         */
+        public static DeadlockPolicy configured() {
+            return valueOf(System.getProperty(PROPERTY, DETECT.name()));
+        }
+    }
+
+    /**
+     * A transaction waiting for a lock. The waiting thread waits on the
+     * request's monitor, so that it can be woken, when granted or chosen as
+     * a deadlock victim, without taking the monitor of the lock.
+     */
+    private static final class Request {
+        final TransactionId tid;
+        final LockMode mode;
+        volatile boolean granted;
+        volatile boolean aborted;
+        /**
+         * The transactions the request waits for; guarded by the monitor of
+         * the lock and, when detecting deadlocks, that of the graph.
+         */
+        Set<TransactionId> blockers = Collections.emptySet();
+
+        Request(TransactionId tid, LockMode mode) {
+            this.tid = tid;
+            this.mode = mode;
+        }
+    }
+
+    /**
+     * The lock of one page or tuple, guarded by its own monitor.
+     */
+    private static final class Lock {
+        final Map<TransactionId, LockMode> holders = new HashMap<>(4);
+        final Deque<Request> queue = new ArrayDeque<>();
+        /**
+         * Set once the lock has been dropped from the lock table; a thread
+         * that still finds it there must look it up again.
+         */
+        boolean retired;
+    }
+
+    /**
+     * The tuple locks of one transaction, by page, for escalation. Guarded by
+     * its own monitor.
+     */
+    private static final class TupleLocks {
+        final Map<PageId, Map<RecordId, LockMode>> byPage = new HashMap<>();
+        final Map<Integer, Integer> perTable = new HashMap<>();
+        /**
+         * Tables whose pages the transaction locks whole from now on.
+         */
+        final Set<Integer> escalatedTables = new HashSet<>();
+
+        void add(RecordId rid, LockMode mode) {
+            PageId pid = rid.getPageId();
+            if (byPage.computeIfAbsent(pid, p -> new HashMap<>()).put(rid, mode) == null) {
+                perTable.merge(pid.getTableId(), 1, Integer::sum);
+            }
+        }
+
+        void remove(RecordId rid) {
+            PageId pid = rid.getPageId();
+            Map<RecordId, LockMode> tuples = byPage.get(pid);
+            if (tuples != null && tuples.remove(rid) != null) {
+                perTable.merge(pid.getTableId(), -1, Integer::sum);
+                if (tuples.isEmpty()) {
+                    byPage.remove(pid);
+                }
+            }
+        }
+
+        /**
+         * Returns the pages whose tuple locks must be escalated before a
+         * tuple of the specified page is locked, or null if none must.
+         */
+        List<PageId> toEscalate(PageId pid, int pageThreshold, int tableThreshold) {
+            int tableId = pid.getTableId();
+            if (!escalatedTables.contains(tableId)) {
+                Map<RecordId, LockMode> tuples = byPage.get(pid);
+                if (tuples != null && tuples.size() >= pageThreshold) {
+                    return Collections.singletonList(pid);
+                }
+                if (perTable.getOrDefault(tableId, 0) < tableThreshold) {
+                    return null;
+                }
+                escalatedTables.add(tableId);
+            }
+            List<PageId> pages = new ArrayList<>();
+            pages.add(pid);
+            for (PageId other : byPage.keySet()) {
+                if (other.getTableId() == tableId && !other.equals(pid)) {
+                    pages.add(other);
+                }
+            }
+            return pages;
+        }
+    }
+
+    /**
+     * Default number of tuple locks a transaction may hold on one page
+     * before they are escalated to a page lock.
+     */
+    public static final int DEFAULT_PAGE_ESCALATION_THRESHOLD = 64;
+
+    /**
+     * Default number of tuple locks a transaction may hold in one table
+     * before it locks the table's pages whole.
+     */
+    public static final int DEFAULT_TABLE_ESCALATION_THRESHOLD = 1024;
+
+    /**
+     * The locks, by PageId or RecordId.
+     */
+    private final ConcurrentMap<Object, Lock> locks;
+
+    /**
+     * The pages and tuples each transaction holds locks on.
+     */
+    private final ConcurrentMap<TransactionId, Set<Object>> lockSets;
+
+    private final ConcurrentMap<TransactionId, TupleLocks> tupleLocks;
+
+    private volatile int pageEscalationThreshold = DEFAULT_PAGE_ESCALATION_THRESHOLD;
+
+    private volatile int tableEscalationThreshold = DEFAULT_TABLE_ESCALATION_THRESHOLD;
+
+    /**
+     * The requests each transaction waits on. With the blockers of the
+     * requests as edges, this is the waits-for graph.
+     */
+    private final ConcurrentMap<TransactionId, Set<Request>> waiting;
+
+    /**
+     * The monitor guarding the edges of the waits-for graph while searching
+     * it; taken after the monitor of a lock and before that of a request.
+     */
+    private final Object graph = new Object();
+
+    /**
+     * Transactions wounded by older ones, which abort on their next request.
+     */
+    private final Set<TransactionId> wounded;
+
+    private final DeadlockPolicy policy;
+
+    private final long timeoutMillis;
+
+    private final AtomicLong deadlocks;
+
+    /**
+     * Creates a lock manager with the configured deadlock policy and no lock
+     * timeout.
+     *
+     * @see DeadlockPolicy#configured
+     */
+    public LockManager() {
+        this(DeadlockPolicy.configured(), 0);
+    }
+
+    /**
+     * Creates a lock manager that detects deadlocks.
+     *
+     * @see #LockManager(DeadlockPolicy, long)
+     */
+    public LockManager(long timeoutMillis) {
+        this(DeadlockPolicy.DETECT, timeoutMillis);
+    }
+
+    /**
+     * Creates a lock manager.
+     *
+     * @param policy        how deadlocks are dealt with
+     * @param timeoutMillis how long a transaction waits for a lock before it
+     *                      is aborted, or 0 to wait until the lock is granted
+     *                      or the transaction is chosen as a deadlock victim;
+     *                      each wait adds a random fraction of up to half of
+     *                      the timeout, so that transactions waiting for each
+     *                      other do not all give up at once
+     */
+    public LockManager(DeadlockPolicy policy, long timeoutMillis) {
+        this.locks = new ConcurrentHashMap<>();
+        this.lockSets = new ConcurrentHashMap<>();
+        this.tupleLocks = new ConcurrentHashMap<>();
+        this.waiting = new ConcurrentHashMap<>();
+        this.wounded = ConcurrentHashMap.newKeySet();
+        this.policy = policy;
+        this.timeoutMillis = timeoutMillis;
+        this.deadlocks = new AtomicLong();
+    }
+
+    /**
+     * Locks a page on behalf of a transaction, waiting until the lock can be
+     * granted. Does nothing if the transaction already holds the page in
+     * the specified mode or a stronger one, and upgrades a shared lock the
+     * transaction holds to an exclusive one.
+     *
+     * @throws DeadlockException if the transaction is aborted to break or
+     *                           prevent a deadlock
+     * @throws TransactionAbortedException if the lock is not granted within
+     *                                     the lock timeout
+     */
+    public void acquire(TransactionId tid, PageId pid, LockMode mode)
+            throws TransactionAbortedException {
+        acquireLock(tid, pid, mode, true);
+    }
+
+    /**
+     * Locks a page or tuple, upgrading the mode the transaction holds it in
+     * to one that also covers the specified mode.
+     *
+     * @param wait whether to wait if the lock cannot be granted at once
+     * @return false if the lock was not granted because wait was false
+     */
+    private boolean acquireLock(TransactionId tid, Object key, LockMode mode, boolean wait)
+            throws TransactionAbortedException {
+        if (wounded.contains(tid)) {
+            throw new DeadlockException();
+        }
+        Lock lock;
+        Request request;
+        while (true) {
+            lock = locks.computeIfAbsent(key, k -> new Lock());
+            synchronized (lock) {
+                if (lock.retired) {
+                    continue;
+                }
+                LockMode held = lock.holders.get(tid);
+                if (held != null && held.covers(mode)) {
+                    return true;
+                }
+                boolean upgrade = held != null;
+                LockMode target = upgrade ? held.join(mode) : mode;
+                if ((upgrade || lock.queue.isEmpty()) && isCompatible(lock, tid, target)) {
+                    grant(lock, tid, key, target);
+                    // the waiters, if any, now wait for a stronger lock
+                    updateWaitsFor(lock);
+                    return true;
+                }
+                if (!wait) {
+                    retireIfUnused(lock, key);
+                    return false;
+                }
+                request = new Request(tid, target);
+                if (upgrade) {
+                    lock.queue.addFirst(request);
+                } else {
+                    lock.queue.addLast(request);
+                }
+                waiting.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(request);
+                // a wound that came after the check above found no request
+                // to abort, so it is checked again now that there is one
+                if (wounded.contains(tid)) {
+                    abort(request);
+                }
+                updateWaitsFor(lock);
+                break;
+            }
+        }
+        try {
+            await(request);
+        } finally {
+            if (!request.granted) {
+                // keeps a search of the graph from following its edges
+                request.aborted = true;
+                synchronized (lock) {
+                    lock.queue.remove(request);
+                    removeWaiter(request);
+                    // requests behind this one may be grantable now
+                    grantWaiters(lock, key);
+                    retireIfUnused(lock, key);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Locks a tuple on behalf of a transaction, waiting until the lock can be
+     * granted. First takes the intention lock on the tuple's page that
+     * {@link #lockTuplePage} describes, and does not lock the tuple itself if
+     * the transaction's lock on the page already covers it.
+     *
+     * @param mode SHARED or EXCLUSIVE
+     * @throws DeadlockException if the transaction is aborted to break or
+     *                           prevent a deadlock
+     * @throws TransactionAbortedException if a lock is not granted within
+     *                                     the lock timeout
+     */
+    public void acquire(TransactionId tid, RecordId rid, LockMode mode)
+            throws TransactionAbortedException {
+        if (!lockTuplePage(tid, rid.getPageId(), mode)) {
+            acquireLock(tid, rid, mode, true);
+            addTuple(tid, rid);
+        }
+    }
+
+    /**
+     * Locks a tuple if that is possible without waiting. The transaction must
+     * already have taken the page's intention lock with
+     * {@link #lockTuplePage}; this lets a transaction that has latched the
+     * page pick a tuple slot no other transaction has locked.
+     *
+     * @param mode SHARED or EXCLUSIVE
+     * @return true if the transaction now holds the tuple in the specified
+     * mode, false if another transaction holds or waits for a conflicting
+     * lock
+     */
+    public boolean tryAcquire(TransactionId tid, RecordId rid, LockMode mode)
+            throws TransactionAbortedException {
+        LockMode held = getLockMode(tid, rid.getPageId());
+        if (held != null && held.coversTuples(mode)) {
+            return true;
+        }
+        if (!acquireLock(tid, rid, mode, false)) {
+            return false;
+        }
+        addTuple(tid, rid);
+        return true;
+    }
+
+    /**
+     * Takes the lock on a page that precedes locking its tuples in the
+     * specified mode: INTENTION_SHARED for SHARED and INTENTION_EXCLUSIVE
+     * for EXCLUSIVE. If the transaction has reached an escalation threshold,
+     * its tuple locks on the page, or on every page of the table, are
+     * replaced by page locks instead, and so is the intention lock.
+     *
+     * @param mode SHARED or EXCLUSIVE
+     * @return true if the transaction holds the page in a mode that covers
+     * its tuples in the specified mode, so that they need no locks of their
+     * own
+     */
+    public boolean lockTuplePage(TransactionId tid, PageId pid, LockMode mode)
+            throws TransactionAbortedException {
+        TupleLocks tuples = tupleLocks.get(tid);
+        if (tuples != null) {
+            List<PageId> escalate;
+            synchronized (tuples) {
+                escalate = tuples.toEscalate(pid, pageEscalationThreshold, tableEscalationThreshold);
+            }
+            if (escalate != null) {
+                for (PageId page : escalate) {
+                    escalate(tid, tuples, page, page.equals(pid) ? mode : LockMode.SHARED);
+                }
+                return true;
+            }
+        }
+        LockMode held = getLockMode(tid, pid);
+        if (held != null && held.coversTuples(mode)) {
+            return true;
+        }
+        acquire(tid, pid, mode.intention());
+        return false;
+    }
+
+    /**
+     * Locks a page in a mode that covers the specified mode and every tuple
+     * lock the transaction holds on the page, and releases those.
+     */
+    private void escalate(TransactionId tid, TupleLocks tuples, PageId pid, LockMode mode)
+            throws TransactionAbortedException {
+        Map<RecordId, LockMode> held;
+        synchronized (tuples) {
+            held = new HashMap<>(tuples.byPage.getOrDefault(pid, Collections.emptyMap()));
+        }
+        for (LockMode tupleMode : held.values()) {
+            mode = mode.join(tupleMode);
+        }
+        acquire(tid, pid, mode);
+        for (RecordId rid : held.keySet()) {
+            synchronized (tuples) {
+                tuples.remove(rid);
+            }
+            releaseKey(tid, rid);
+        }
+    }
+
+    private void addTuple(TransactionId tid, RecordId rid) {
+        TupleLocks tuples = tupleLocks.computeIfAbsent(tid, t -> new TupleLocks());
+        synchronized (tuples) {
+            tuples.add(rid, getLockMode(tid, rid));
+        }
+    }
+
+    /**
+     * Sets how many tuple locks a transaction may hold before they are
+     * escalated to page locks.
+     *
+     * @param perPage  the limit on one page
+     * @param perTable the limit in one table, after which the transaction
+     *                 locks every page of the table it uses whole
+     */
+    public void setEscalationThresholds(int perPage, int perTable) {
+        if (perPage < 1 || perTable < 1) {
+            throw new IllegalArgumentException("escalation thresholds must be positive");
+        }
+        this.pageEscalationThreshold = perPage;
+        this.tableEscalationThreshold = perTable;
+    }
+
+    private void await(Request request) throws TransactionAbortedException {
+        long deadline = 0;
+        if (timeoutMillis > 0) {
+            long timeout = timeoutMillis + ThreadLocalRandom.current().nextLong(timeoutMillis / 2 + 1);
+            deadline = System.currentTimeMillis() + timeout;
+        }
+        synchronized (request) {
+            while (!request.granted) {
+                if (request.aborted) {
+                    throw new DeadlockException();
+                }
+                long remaining = 0;
+                if (deadline > 0) {
+                    remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new TransactionAbortedException();
+                    }
+                }
+                try {
+                    request.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if no other holder of the lock conflicts with the mode.
+     */
+    private static boolean isCompatible(Lock lock, TransactionId tid, LockMode mode) {
+        for (Map.Entry<TransactionId, LockMode> holder : lock.holders.entrySet()) {
+            if (!holder.getKey().equals(tid) && !holder.getValue().compatibleWith(mode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grant(Lock lock, TransactionId tid, Object key, LockMode mode) {
+        // another thread of the transaction may have got a stronger lock meanwhile
+        lock.holders.merge(tid, mode, LockMode::join);
+        lockSets.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    /**
+     * Grants the requests at the head of the queue, in order, until one of
+     * them conflicts, and updates the edges of those left waiting.
+     */
+    private void grantWaiters(Lock lock, Object key) {
+        Iterator<Request> it = lock.queue.iterator();
+        while (it.hasNext()) {
+            Request request = it.next();
+            if (!isCompatible(lock, request.tid, request.mode)) {
+                break;
+            }
+            it.remove();
+            grant(lock, request.tid, key, request.mode);
+            removeWaiter(request);
+            synchronized (request) {
+                request.granted = true;
+                request.notify();
+            }
+        }
+        updateWaitsFor(lock);
+    }
+
+    private void removeWaiter(Request request) {
+        waiting.computeIfPresent(request.tid, (tid, requests) -> {
+            requests.remove(request);
+            return requests.isEmpty() ? null : requests;
+        });
+    }
+
+    /**
+     * Recomputes the edges that leave the requests queued for a lock. Must
+     * be called with the lock's monitor held whenever its holders or queue
+     * change. Applies the deadlock policy to every request that gets a new
+     * edge.
+     */
+    private void updateWaitsFor(Lock lock) {
+        if (lock.queue.isEmpty()) {
+            return;
+        }
+        if (policy == DeadlockPolicy.DETECT) {
+            synchronized (graph) {
+                for (Request request : updateBlockers(lock)) {
+                    List<TransactionId> cycle = findCycle(request.tid);
+                    if (cycle != null) {
+                        abortVictim(cycle);
+                    }
+                }
+            }
+        } else {
+            for (Request request : updateBlockers(lock)) {
+                prevent(request);
+            }
+        }
+    }
+
+    /**
+     * Recomputes the blockers of the requests queued for a lock, and returns
+     * the requests that got new ones.
+     */
+    private List<Request> updateBlockers(Lock lock) {
+        List<Request> grown = new ArrayList<>();
+        List<Request> ahead = new ArrayList<>();
+        for (Request request : lock.queue) {
+            Set<TransactionId> blockers = new HashSet<>();
+            for (Map.Entry<TransactionId, LockMode> holder : lock.holders.entrySet()) {
+                if (!holder.getKey().equals(request.tid) && !holder.getValue().compatibleWith(request.mode)) {
+                    blockers.add(holder.getKey());
+                }
+            }
+            for (Request other : ahead) {
+                if (!other.tid.equals(request.tid) && !other.mode.compatibleWith(request.mode)) {
+                    blockers.add(other.tid);
+                }
+            }
+            ahead.add(request);
+            if (!request.blockers.containsAll(blockers)) {
+                grown.add(request);
+            }
+            request.blockers = blockers;
+        }
+        return grown;
+    }
+
+    /**
+     * Applies a prevention policy to a request, aborting it or the younger
+     * transactions it waits for unless it waits only in the allowed
+     * direction.
+     */
+    private void prevent(Request request) {
+        if (request.aborted) {
+            return;
+        }
+        long id = request.tid.getId();
+        for (TransactionId blocker : request.blockers) {
+            boolean older = blocker.getId() < id;
+            if (policy == DeadlockPolicy.WAIT_DIE && older) {
+                deadlocks.incrementAndGet();
+                abort(request);
+                return;
+            }
+            if (policy == DeadlockPolicy.WOUND_WAIT && !older && wounded.add(blocker)) {
+                deadlocks.incrementAndGet();
+                abortWaiting(blocker);
+            }
+        }
+    }
+
+    /**
+     * Returns the transactions on a cycle of the waits-for graph through a
+     * transaction, or null if there is none. Edges of requests already
+     * aborted are ignored, as they are about to go away.
+     */
+    private List<TransactionId> findCycle(TransactionId start) {
+        List<TransactionId> path = new ArrayList<>();
+        return findPath(start, start, path, new HashSet<>()) ? path : null;
+    }
+
+    private boolean findPath(TransactionId from, TransactionId to, List<TransactionId> path,
+                             Set<TransactionId> visited) {
+        path.add(from);
+        for (Request request : waiting.getOrDefault(from, Collections.emptySet())) {
+            if (request.aborted) {
+                continue;
+            }
+            for (TransactionId next : request.blockers) {
+                if (next.equals(to)) {
+                    return true;
+                }
+                if (visited.add(next) && findPath(next, to, path, visited)) {
+                    return true;
+                }
+            }
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    /**
+     * Aborts the youngest transaction of a cycle.
+     */
+    private void abortVictim(List<TransactionId> cycle) {
+        TransactionId victim = cycle.get(0);
+        for (TransactionId tid : cycle) {
+            if (tid.getId() > victim.getId()) {
+                victim = tid;
+            }
+        }
+        deadlocks.incrementAndGet();
+        abortWaiting(victim);
+    }
+
+    /**
+     * Wakes each request a transaction waits on with a DeadlockException.
+     */
+    private void abortWaiting(TransactionId tid) {
+        for (Request request : waiting.getOrDefault(tid, Collections.emptySet())) {
+            abort(request);
+        }
+    }
+
+    private static void abort(Request request) {
+        synchronized (request) {
+            request.aborted = true;
+            request.notify();
+        }
+    }
+
+    private void retireIfUnused(Lock lock, Object key) {
+        if (lock.holders.isEmpty() && lock.queue.isEmpty()) {
+            lock.retired = true;
+            locks.remove(key, lock);
+        }
+    }
+
+    /**
+     * Releases the lock a transaction holds on a page, if any, before the
+     * transaction completes. Breaks two-phase locking; see
+     * {@link simpledb.storage.BufferPool#unsafeReleasePage}.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        releaseKey(tid, pid);
+    }
+
+    private void releaseKey(TransactionId tid, Object key) {
+        Set<Object> keys = lockSets.get(tid);
+        if (keys != null) {
+            keys.remove(key);
+        }
+        releaseLock(tid, key);
+    }
+
+    /**
+     * Releases every lock a transaction holds.
+     */
+    public void releaseAll(TransactionId tid) {
+        wounded.remove(tid);
+        tupleLocks.remove(tid);
+        Set<Object> keys = lockSets.remove(tid);
+        if (keys != null) {
+            for (Object key : keys) {
+                releaseLock(tid, key);
+            }
+        }
+    }
+
+    private void releaseLock(TransactionId tid, Object key) {
+        Lock lock = locks.get(key);
+        if (lock == null) {
+            return;
+        }
+        synchronized (lock) {
+            if (lock.holders.remove(tid) == null) {
+                return;
+            }
+            grantWaiters(lock, key);
+            retireIfUnused(lock, key);
+        }
+    }
+
+    /**
+     * Returns true if the transaction holds a lock on the page.
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Set<Object> keys = lockSets.get(tid);
+        return keys != null && keys.contains(pid);
+    }
+
+    /**
+     * Returns true if the transaction holds a lock on the tuple itself, as
+     * opposed to one on its page that covers it.
+     */
+    public boolean holdsLock(TransactionId tid, RecordId rid) {
+        Set<Object> keys = lockSets.get(tid);
+        return keys != null && keys.contains(rid);
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the number of transactions aborted to break or prevent a
+     * deadlock.
+     */
+    public long getDeadlockCount() {
+        return deadlocks.get();
+    }
+
+    /**
+     * Returns the mode the transaction holds the page in, or null if it does
+     * not hold a lock on it.
+     */
+    public LockMode getLockMode(TransactionId tid, PageId pid) {
+        return getMode(tid, pid);
+    }
+
+    /**
+     * Returns the mode the transaction holds the tuple itself in, or null if
+     * it does not hold a lock on it.
+     */
+    public LockMode getLockMode(TransactionId tid, RecordId rid) {
+        return getMode(tid, rid);
+    }
+
+    private LockMode getMode(TransactionId tid, Object key) {
+        Lock lock = locks.get(key);
+        if (lock == null) {
+            return null;
+        }
+        synchronized (lock) {
+            return lock.holders.get(tid);
+        }
+    }
+}
@@ -11,10 +11,22 @@ import java.io.IOException;
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean readOnly;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * Creates a transaction that is read-only if readOnly is set. A
+     * read-only transaction reads a snapshot of the database as of when it
+     * starts, without taking locks, and cannot change it; see
+     * {@link simpledb.storage.BufferPool#beginSnapshot}.
+     */
+    public Transaction(boolean readOnly) {
         tid = new TransactionId();
+        this.readOnly = readOnly;
     }
 
     /**
@@ -22,6 +34,9 @@ public class Transaction {
      */
     public void start() {
         started = true;
+        if (readOnly) {
+            Database.getBufferPool().beginSnapshot(tid);
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -33,6 +48,13 @@ public class Transaction {
         return tid;
     }
 
+    /**
+     * Returns true if the transaction reads a snapshot and cannot write
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     /**
      * Finish the transaction
      */
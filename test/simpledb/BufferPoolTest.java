@@ -0,0 +1,650 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolTest extends TestUtil.CreateHeapFile {
+    private TransactionId tid;
+    private HeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        // 504 tuples fit on a page
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private List<PageId> pageIds() {
+        List<PageId> pids = new ArrayList<>();
+        for (int i = 0; i < hf.numPages(); i++) {
+            pids.add(new HeapPageId(hf.getId(), i));
+        }
+        return pids;
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() with a partitioned page table
+     */
+    @Test public void partitioned() throws Exception {
+        // room for every page however they hash
+        BufferPool bp = new BufferPool(80, 4);
+        List<Page> pages = new ArrayList<>();
+        for (PageId pid : pageIds()) {
+            pages.add(bp.getPage(tid, pid, Permissions.READ_ONLY));
+        }
+        // every page fits, whichever shard it went to, and is read only once
+        for (int i = 0; i < pages.size(); i++) {
+            assertSame(pages.get(i), bp.getPage(tid, pages.get(i).getId(), Permissions.READ_ONLY));
+        }
+
+        // concurrent readers of the same pages share them
+        Page[][] seen = new Page[4][pages.size()];
+        Thread[] threads = new Thread[seen.length];
+        for (int t = 0; t < threads.length; t++) {
+            final Page[] mine = seen[t];
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < mine.length; i++) {
+                        mine[i] = bp.getPage(tid, pages.get(i).getId(), Permissions.READ_ONLY);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Page[] mine : seen) {
+            for (int i = 0; i < mine.length; i++) {
+                assertSame(pages.get(i), mine[i]);
+            }
+        }
+
+        try {
+            new BufferPool(4, 5);
+            fail("expected exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() with CLOCK replacement
+     */
+    @Test public void clock() throws Exception {
+        BufferPool bp = new BufferPool(4, BufferPool.ReplacementPolicy.CLOCK);
+        List<PageId> pids = pageIds();
+        Page[] pages = new Page[6];
+        for (int i = 0; i < 5; i++) {
+            pages[i] = bp.getPage(tid, pids.get(i), Permissions.READ_ONLY);
+        }
+        // page 4 cleared every reference bit and replaced page 0
+        assertNotSame(pages[0], bp.getPage(tid, pids.get(0), Permissions.READ_ONLY));
+        // which replaced page 1; a hit gives page 3 a second chance, so page 5
+        // replaces page 2 instead
+        pages[3] = bp.getPage(tid, pids.get(3), Permissions.READ_ONLY);
+        bp.getPage(tid, pids.get(5), Permissions.READ_ONLY);
+        assertSame(pages[3], bp.getPage(tid, pids.get(3), Permissions.READ_ONLY));
+        assertNotSame(pages[2], bp.getPage(tid, pids.get(2), Permissions.READ_ONLY));
+
+        // dirty pages are never replaced
+        BufferPool small = new BufferPool(2, BufferPool.ReplacementPolicy.CLOCK);
+        for (int i = 0; i < 2; i++) {
+            small.getPage(tid, pids.get(i), Permissions.READ_WRITE).markDirty(true, tid);
+        }
+        try {
+            small.getPage(tid, pids.get(2), Permissions.READ_ONLY);
+            fail("expected exception");
+        } catch (DbException ignored) {
+        }
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() with 2Q replacement
+     */
+    @Test public void twoQueue() throws Exception {
+        BufferPool bp = new BufferPool(8, BufferPool.ReplacementPolicy.TWO_Q);
+        List<PageId> pids = pageIds();
+        for (int i = 0; i < 10; i++) {
+            bp.getPage(tid, pids.get(i), Permissions.READ_ONLY);
+        }
+        // pages 0 and 1 were just evicted, so using them again makes them hot
+        Page hot0 = bp.getPage(tid, pids.get(0), Permissions.READ_ONLY);
+        Page hot1 = bp.getPage(tid, pids.get(1), Permissions.READ_ONLY);
+
+        // a scan of more pages than the pool holds does not evict them
+        for (int i = 10; i < 20; i++) {
+            bp.getPage(tid, pids.get(i), Permissions.READ_ONLY);
+        }
+        assertSame(hot0, bp.getPage(tid, pids.get(0), Permissions.READ_ONLY));
+        assertSame(hot1, bp.getPage(tid, pids.get(1), Permissions.READ_ONLY));
+    }
+
+    /**
+     * Unit test for BufferPool.pinPage(), BufferPool.unpinPage() and eviction
+     */
+    @Test public void pinAndEvict() throws Exception {
+        List<PageId> pids = pageIds();
+        for (BufferPool.ReplacementPolicy policy : BufferPool.ReplacementPolicy.values()) {
+            BufferPool bp = new BufferPool(3, policy);
+            Page pinned = bp.pinPage(tid, pids.get(0), Permissions.READ_ONLY);
+            assertTrue(bp.isPinned(pids.get(0)));
+            for (int i = 1; i < 8; i++) {
+                bp.getPage(tid, pids.get(i), Permissions.READ_ONLY);
+            }
+            assertSame(policy.name(), pinned, bp.getPage(tid, pids.get(0), Permissions.READ_ONLY));
+
+            bp.unpinPage(tid, pids.get(0));
+            assertFalse(bp.isPinned(pids.get(0)));
+            for (int i = 1; i < 8; i++) {
+                bp.getPage(tid, pids.get(i), Permissions.READ_ONLY);
+            }
+            assertNotSame(policy.name(), pinned, bp.getPage(tid, pids.get(0), Permissions.READ_ONLY));
+
+            // no page can be evicted if all are pinned or dirty
+            bp.pinPage(tid, pids.get(1), Permissions.READ_ONLY);
+            bp.pinPage(tid, pids.get(1), Permissions.READ_ONLY);
+            bp.pinPage(tid, pids.get(2), Permissions.READ_ONLY);
+            Page dirty = bp.getPage(tid, pids.get(3), Permissions.READ_WRITE);
+            dirty.markDirty(true, tid);
+            try {
+                bp.getPage(tid, pids.get(4), Permissions.READ_ONLY);
+                fail("expected exception");
+            } catch (DbException ignored) {
+            }
+
+            // pins are released when the transaction completes
+            bp.transactionComplete(tid);
+            assertFalse(bp.isPinned(pids.get(1)));
+            bp.getPage(tid, pids.get(4), Permissions.READ_ONLY);
+
+            dirty.markDirty(false, null);
+
+            // removing a page frees its frame, and removing an uncached page is harmless
+            bp = new BufferPool(3, policy);
+            for (int i = 0; i < 3; i++) {
+                bp.getPage(tid, pids.get(i), Permissions.READ_ONLY);
+            }
+            bp.pinPage(tid, pids.get(0), Permissions.READ_ONLY);
+            bp.pinPage(tid, pids.get(1), Permissions.READ_ONLY);
+            bp.removePage(pids.get(2));
+            bp.removePage(pids.get(2));
+            bp.getPage(tid, pids.get(3), Permissions.READ_ONLY);
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() with pages kept off the heap
+     */
+    @Test public void offHeap() throws Exception {
+        BufferPool bp = new BufferPool(4, 1, BufferPool.ReplacementPolicy.LRU, true);
+        assertTrue(bp.isOffHeap());
+        List<PageId> pids = pageIds();
+
+        // a dirty page keeps its frame while the other frames are reused
+        HeapPage dirty = (HeapPage) bp.pinPage(tid, pids.get(0), Permissions.READ_WRITE);
+        Tuple deleted = dirty.iterator().next();
+        dirty.deleteTuple(deleted);
+        dirty.markDirty(true, tid);
+        bp.unpinPage(tid, pids.get(0));
+        byte[] expected = dirty.getPageData();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 1; i < pids.size(); i++) {
+                Page page = bp.getPage(tid, pids.get(i), Permissions.READ_ONLY);
+                assertArrayEquals(hf.readPage(pids.get(i)).getPageData(), page.getPageData());
+            }
+            // pages read ahead go into frames too
+            bp.prefetchPages(pids.subList(1, 4));
+        }
+        assertSame(dirty, bp.getPage(tid, pids.get(0), Permissions.READ_ONLY));
+        assertArrayEquals(expected, dirty.getPageData());
+        assertFalse(dirty.isSlotUsed(deleted.getRecordId().getTupleNumber()));
+        dirty.markDirty(false, null);
+    }
+
+    /**
+     * Unit test for BufferPool.startPageCleaner()
+     */
+    @Test public void pageCleaner() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Tuple t = Utility.getHeapTuple(42, 2);
+        bp.insertTuple(tid, empty.getId(), t);
+        PageId pid = t.getRecordId().getPageId();
+        Page page = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(tid, page.isDirty());
+
+        // the cleaner steals the page of the running transaction
+        bp.startPageCleaner(0, 0);
+        assertTrue(bp.isPageCleanerRunning());
+        long deadline = System.currentTimeMillis() + 10000;
+        while (page.isDirty() != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(page.isDirty());
+        assertTrue(bp.getCleanedPages() >= 1);
+        assertEquals(503, ((HeapPage) empty.readPage(pid)).getNumUnusedSlots());
+        bp.stopPageCleaner();
+        assertFalse(bp.isPageCleanerRunning());
+
+        // and the write is undone when the transaction aborts
+        bp.transactionComplete(tid, false);
+        assertEquals(504, ((HeapPage) empty.readPage(pid)).getNumUnusedSlots());
+        HeapPage reread = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertNotSame(page, reread);
+        assertEquals(504, reread.getNumUnusedSlots());
+    }
+
+    /**
+     * Unit test for BufferPool.startPageCleaner() while the transaction that
+     * dirtied a page keeps changing it: changes made while the cleaner
+     * writes the page keep it dirty, and are written at commit
+     */
+    @Test public void pageCleanerConcurrentChanges() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Tuple first = Utility.getHeapTuple(0, 2);
+        bp.insertTuple(tid, empty.getId(), first);
+        PageId pid = first.getRecordId().getPageId();
+
+        bp.startPageCleaner(0, 0);
+        try {
+            for (int i = 1; i < 400; i++) {
+                bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+                if (i % 20 == 0) {
+                    Thread.sleep(30);
+                }
+            }
+            assertTrue(bp.getCleanedPages() >= 1);
+        } finally {
+            bp.stopPageCleaner();
+        }
+
+        bp.transactionComplete(tid, true);
+        assertEquals(504 - 400, ((HeapPage) empty.readPage(pid)).getNumUnusedSlots());
+    }
+
+    /**
+     * Unit test for BufferPool.addSubPool() and the assignment of pages to
+     * sub-pools
+     */
+    @Test public void subPools() throws Exception {
+        BufferPool bp = new BufferPool(4);
+        bp.addSubPool("hot", 20, BufferPool.ReplacementPolicy.LRU);
+        bp.addSubPool("scan", 2, BufferPool.ReplacementPolicy.LRU);
+        Database.getCatalog().addTable(hf, "hot_table", "", "hot");
+        List<PageId> pids = pageIds();
+        List<Page> hot = new ArrayList<>();
+        for (PageId pid : pids) {
+            hot.add(bp.getPage(tid, pid, Permissions.READ_ONLY));
+        }
+        assertEquals(20, bp.getSubPoolSize("hot"));
+        assertEquals(0, bp.getSubPoolSize(BufferPool.DEFAULT_POOL));
+
+        // scans through the default pool do not touch the hot pages
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        for (int i = 0; i < other.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(other.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(4, bp.getSubPoolSize(BufferPool.DEFAULT_POOL));
+        for (int i = 0; i < pids.size(); i++) {
+            assertSame(hot.get(i), bp.getPage(tid, pids.get(i), Permissions.READ_ONLY));
+        }
+
+        // a hinted transaction reads into its own sub-pool, but finds cached
+        // pages wherever they are
+        TransactionId report = new TransactionId();
+        bp.setSubPoolHint(report, "scan");
+        for (int i = 4; i < other.numPages(); i++) {
+            bp.getPage(report, new HeapPageId(other.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(2, bp.getSubPoolSize("scan"));
+        assertSame(hot.get(0), bp.getPage(report, pids.get(0), Permissions.READ_ONLY));
+        bp.transactionComplete(report);
+
+        // assignments override the catalog
+        bp.assignTable(hf.getId(), BufferPool.DEFAULT_POOL);
+        bp.removePage(pids.get(0));
+        bp.getPage(tid, pids.get(0), Permissions.READ_ONLY);
+        assertEquals(19, bp.getSubPoolSize("hot"));
+
+        try {
+            bp.addSubPool("hot", 1, BufferPool.ReplacementPolicy.LRU);
+            fail("expected exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            bp.assignTable(hf.getId(), "nonexistent");
+            fail("expected exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * Unit test for BufferPool.setNumPages() and the hit ratio
+     */
+    @Test public void resize() throws Exception {
+        List<PageId> pids = pageIds();
+        for (BufferPool.ReplacementPolicy policy : BufferPool.ReplacementPolicy.values()) {
+            BufferPool bp = new BufferPool(10, policy);
+            for (int i = 0; i < 10; i++) {
+                bp.getPage(tid, pids.get(i), Permissions.READ_ONLY);
+            }
+            Page pinned = bp.pinPage(tid, pids.get(0), Permissions.READ_ONLY);
+            Page dirty = bp.getPage(tid, pids.get(1), Permissions.READ_WRITE);
+            dirty.markDirty(true, tid);
+            assertEquals(10, bp.getMisses());
+            assertEquals(2, bp.getHits());
+            assertEquals(2.0 / 12, bp.getHitRatio(), 1e-9);
+
+            // shrinking evicts what it can and keeps pinned and dirty pages
+            bp.setNumPages(2);
+            assertEquals(2, bp.getNumPages());
+            assertEquals(policy.name(), 2, bp.getUsedPages());
+            assertSame(pinned, bp.getPage(tid, pids.get(0), Permissions.READ_ONLY));
+            assertSame(dirty, bp.getPage(tid, pids.get(1), Permissions.READ_ONLY));
+            try {
+                bp.getPage(tid, pids.get(2), Permissions.READ_ONLY);
+                fail("expected exception");
+            } catch (DbException ignored) {
+            }
+            dirty.markDirty(false, null);
+            bp.getPage(tid, pids.get(2), Permissions.READ_ONLY);
+            assertEquals(2, bp.getUsedPages());
+
+            // growing makes room without dropping anything
+            bp.setNumPages(pids.size());
+            List<Page> pages = new ArrayList<>();
+            for (PageId pid : pids) {
+                pages.add(bp.getPage(tid, pid, Permissions.READ_ONLY));
+            }
+            assertEquals(pids.size(), bp.getUsedPages());
+            assertSame(pinned, pages.get(0));
+            for (int i = 0; i < pids.size(); i++) {
+                assertSame(policy.name(), pages.get(i), bp.getPage(tid, pids.get(i), Permissions.READ_ONLY));
+            }
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Unit test for BufferPool.saveSnapshot() and BufferPool.warmUp()
+     */
+    @Test public void warmStart() throws Exception {
+        List<PageId> pids = pageIds();
+        File snapshot = File.createTempFile("bufferpool", ".snapshot");
+        snapshot.deleteOnExit();
+        for (BufferPool.ReplacementPolicy policy : BufferPool.ReplacementPolicy.values()) {
+            BufferPool bp = new BufferPool(8, policy);
+            for (int i = 0; i < 12; i++) {
+                bp.getPage(tid, pids.get(i), Permissions.READ_ONLY);
+            }
+            // pages 8 to 11 are the most recent, and 2Q's newest probationary pages
+            for (int i = 8; i < 12; i++) {
+                bp.getPage(tid, pids.get(i), Permissions.READ_ONLY);
+            }
+            bp.saveSnapshot(snapshot);
+
+            // a smaller pool warms up with the hottest pages
+            BufferPool restarted = new BufferPool(4, policy);
+            assertEquals(4, restarted.warmUp(snapshot));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (restarted.getUsedPages() < 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            for (int i = 8; i < 12; i++) {
+                restarted.getPage(tid, pids.get(i), Permissions.READ_ONLY);
+            }
+            assertEquals(policy.name(), 0, restarted.getMisses());
+        }
+        assertEquals(0, new BufferPool(4).warmUp(new File(snapshot.getPath() + ".missing")));
+    }
+
+    /**
+     * Unit test for BufferPool.getStats()
+     */
+    @Test public void stats() throws Exception {
+        BufferPool bp = new BufferPool(4);
+        List<PageId> pids = pageIds();
+        for (int i = 0; i < 6; i++) {
+            bp.getPage(tid, pids.get(i), Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, pids.get(5), Permissions.READ_WRITE).markDirty(true, tid);
+        bp.flushAllPages();
+
+        BufferPoolStats.Counters table = bp.getStats().getTable(hf.getId());
+        assertEquals(1, table.getHits());
+        assertEquals(6, table.getMisses());
+        assertEquals(2, table.getEvictions());
+        assertEquals(1, table.getDirtyWrites());
+        assertEquals(6L * BufferPool.getPageSize(), table.getBytesRead());
+        assertEquals(BufferPool.getPageSize(), table.getBytesWritten());
+        long reads = 0;
+        for (long n : table.getReadLatencyHistogram()) {
+            reads += n;
+        }
+        assertEquals(6, reads);
+        assertEquals(6, bp.getStats().get(hf.getId(), BufferPoolStats.Category.HEAP).getMisses());
+        assertEquals(0, bp.getStats().getCategory(BufferPoolStats.Category.LEAF).getMisses());
+        assertEquals(1.0 / 7, bp.getStats().getTotals().getHitRatio(), 1e-9);
+
+        // the totals are published over JMX
+        bp.registerMBean();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(BufferPool.MBEAN_NAME);
+        assertEquals(6L, server.getAttribute(name, "Misses"));
+        assertEquals(4, server.getAttribute(name, "UsedPages"));
+
+        bp.getStats().reset();
+        assertEquals(0, bp.getMisses());
+    }
+
+    /**
+     * Waits until the pool has read the specified number of pages from disk.
+     */
+    private static void awaitReads(BufferPool bp, int pages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bp.getStats().getBytesRead() < (long) pages * BufferPool.getPageSize()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Unit test for HeapFile read-ahead and BufferPool.prefetchPages()
+     */
+    @Test public void readAhead() throws Exception {
+        // opening a scan reads the following pages ahead
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(HeapFile.DEFAULT_READ_AHEAD_PAGES, hf.getReadAheadPages());
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bp.getUsedPages() < 1 + HeapFile.DEFAULT_READ_AHEAD_PAGES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1 + HeapFile.DEFAULT_READ_AHEAD_PAGES, bp.getUsedPages());
+
+        // the scan finds them cached, and no page is read twice
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        assertTrue(bp.getHits() >= HeapFile.DEFAULT_READ_AHEAD_PAGES);
+        assertEquals((long) hf.numPages() * BufferPool.getPageSize(), bp.getStats().getBytesRead());
+        bp.transactionComplete(tid);
+
+        // a window of 0 turns read-ahead off
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.setReadAheadPages(0);
+        it = hf.iterator(tid);
+        it.open();
+        Thread.sleep(200);
+        assertEquals(1, bp.getUsedPages());
+        it.close();
+        bp.transactionComplete(tid);
+
+        // pages being read ahead are not read again by getPage
+        bp = new BufferPool(BufferPool.DEFAULT_PAGES);
+        List<PageId> pids = pageIds();
+        bp.prefetchPages(pids.subList(0, 8));
+        for (PageId pid : pids.subList(0, 8)) {
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+        }
+        awaitReads(bp, 8);
+        assertEquals(8L * BufferPool.getPageSize(), bp.getStats().getBytesRead());
+
+        // read-ahead never evicts dirty or pinned pages
+        bp = new BufferPool(2);
+        Page pinned = bp.pinPage(tid, pids.get(0), Permissions.READ_ONLY);
+        Page dirty = bp.getPage(tid, pids.get(1), Permissions.READ_WRITE);
+        dirty.markDirty(true, tid);
+        bp.prefetchPages(pids.subList(2, 4));
+        awaitReads(bp, 4);
+        try {
+            // waits for the read-ahead of the page if it is still running
+            bp.getPage(tid, pids.get(2), Permissions.READ_ONLY);
+            fail("expected exception");
+        } catch (DbException ignored) {
+        }
+        assertSame(pinned, bp.getPage(tid, pids.get(0), Permissions.READ_ONLY));
+        assertSame(dirty, bp.getPage(tid, pids.get(1), Permissions.READ_ONLY));
+        assertEquals(2, bp.getUsedPages());
+        dirty.markDirty(false, null);
+    }
+
+    private static int countTuples(HeapFile f, TransactionId tid) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * Unit test for BufferPool.beginSnapshot()
+     */
+    @Test public void snapshot() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+        bp.transactionComplete(tid, true);
+
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        assertTrue(bp.isSnapshot(reader));
+        TransactionId writer = new TransactionId();
+        Tuple t = Utility.getHeapTuple(2, 2);
+        bp.insertTuple(writer, empty.getId(), t);
+        PageId pid = t.getRecordId().getPageId();
+
+        // the reader neither waits for the writer's lock nor sees its insert
+        assertEquals(1, countTuples(empty, reader));
+        assertFalse(bp.holdsLock(reader, pid));
+        assertFalse(bp.isPinned(pid));
+        try {
+            bp.getPage(reader, pid, Permissions.READ_WRITE);
+            fail("a read-only transaction wrote a page");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // nor the commit, unlike a snapshot taken after it
+        bp.transactionComplete(writer, true);
+        assertEquals(1, bp.getVersionCount());
+        assertEquals(1, countTuples(empty, reader));
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        assertEquals(2, countTuples(empty, later));
+
+        // versions are dropped once no snapshot can read them
+        bp.transactionComplete(reader, true);
+        assertFalse(bp.isSnapshot(reader));
+        assertEquals(0, bp.getVersionCount());
+        bp.transactionComplete(later, true);
+    }
+
+    /**
+     * Unit test for BufferPool.transactionComplete() when the pages of a
+     * commit cannot all be written: the commit is undone like an abort, the
+     * failure is thrown and the locks are released
+     */
+    @Test(timeout = 10000) public void commitFailure() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        File file = File.createTempFile("failing", ".dat");
+        file.deleteOnExit();
+        Files.write(file.toPath(), HeapPage.createEmptyPageData());
+        final int[] writes = {0};
+        final int[] failAt = {-1};
+        HeapFile failing = new HeapFile(file, Utility.getTupleDesc(2)) {
+            @Override public void writePage(Page page) throws IOException {
+                if (++writes[0] == failAt[0]) {
+                    throw new IOException("write failed");
+                }
+                super.writePage(page);
+            }
+        };
+        Database.getCatalog().addTable(failing, "failing_table");
+        for (int i = 0; i < 505; i++) {
+            bp.insertTuple(tid, failing.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, failing.numPages());
+
+        // the first page is written, the second is not
+        writes[0] = 0;
+        failAt[0] = 2;
+        try {
+            bp.transactionComplete(tid, true);
+            fail("expected exception");
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        for (int i = 0; i < 2; i++) {
+            assertEquals(504, ((HeapPage) failing.readPage(new HeapPageId(failing.getId(), i))).getNumUnusedSlots());
+        }
+        TransactionId other = new TransactionId();
+        bp.getPage(other, new HeapPageId(failing.getId(), 0), Permissions.READ_WRITE);
+        assertEquals(0, countTuples(failing, other));
+        bp.transactionComplete(other);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import simpledb.storage.FileChannelPool;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FileChannelPoolTest extends SimpleDbTestBase {
+    private FileChannelPool pool;
+    private File f;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        pool = new FileChannelPool();
+        f = File.createTempFile("channels", ".dat");
+        f.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() {
+        pool.closeAll();
+    }
+
+    /**
+     * Positional writes and reads see each other and extend the file.
+     */
+    @Test
+    public void readWrite() throws Exception {
+        pool.write(f, ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), 8);
+        assertEquals(12, pool.size(f));
+        assertEquals(12, f.length());
+
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        assertEquals(4, pool.read(f, dst, 8));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, dst.array());
+
+        dst.clear();
+        assertEquals(-1, pool.read(f, dst, 12));
+    }
+
+    /**
+     * The same channel is handed out until the pool is closed.
+     */
+    @Test
+    public void sharedChannel() throws Exception {
+        FileChannel fc = pool.getChannel(f);
+        assertSame(fc, pool.getChannel(new File(f.getPath())));
+
+        pool.closeAll();
+        assertFalse(fc.isOpen());
+        FileChannel reopened = pool.getChannel(f);
+        assertNotSame(fc, reopened);
+        assertTrue(reopened.isOpen());
+    }
+
+    /**
+     * A channel closed behind the pool's back is reopened transparently.
+     */
+    @Test
+    public void reopenClosedChannel() throws Exception {
+        pool.write(f, ByteBuffer.wrap(new byte[]{5}), 0);
+        pool.getChannel(f).close();
+
+        ByteBuffer dst = ByteBuffer.allocate(1);
+        assertEquals(1, pool.read(f, dst, 0));
+        assertEquals(5, dst.get(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileChannelPoolTest.class);
+    }
+}
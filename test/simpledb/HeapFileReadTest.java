@@ -81,6 +81,52 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped HeapFile
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        assertTrue(mapped.isMemoryMapped());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        assertArrayEquals(hf.readPage(pid).getPageData(), page.getPageData());
+
+        // pages appended after the file was first mapped must be readable too
+        HeapPage written = (HeapPage) hf.readPage(pid);
+        written = new HeapPage(new HeapPageId(hf.getId(), 1), written.getPageData());
+        hf.writePage(written);
+        assertEquals(2, mapped.numPages());
+        HeapPage tail = (HeapPage) mapped.readPage(new HeapPageId(hf.getId(), 1));
+        assertArrayEquals(written.getPageData(), tail.getPageData());
+    }
+
+    /**
+     * Unit test for HeapFile.readPages()
+     */
+    @Test
+    public void readPages() throws Exception {
+        HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        List<PageId> pids = new ArrayList<>();
+        for (int i = 0; i < bigFile.numPages(); ++i) {
+            pids.add(new HeapPageId(bigFile.getId(), i));
+        }
+        assertEquals(4, pids.size());
+
+        List<Page> pages = bigFile.readPages(pids);
+        assertEquals(pids.size(), pages.size());
+        for (int i = 0; i < pids.size(); ++i) {
+            assertEquals(pids.get(i), pages.get(i).getId());
+            assertArrayEquals(bigFile.readPage(pids.get(i)).getPageData(), pages.get(i).getPageData());
+        }
+
+        try {
+            bigFile.readPages(Arrays.asList(pids.get(0), pids.get(2)));
+            fail("expected exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -7,12 +7,25 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionId;
 
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -90,6 +103,240 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.writePages()
+     */
+    @Test public void writePages() throws Exception {
+        int tableId = empty.getId();
+        List<Page> pages = new ArrayList<>();
+        for (int pgNo : new int[]{2, 0, 1, 4, 3}) {
+            HeapPage page = new HeapPage(new HeapPageId(tableId, pgNo), HeapPage.createEmptyPageData());
+            for (int i = 0; i <= pgNo; ++i) {
+                page.insertTuple(Utility.getHeapTuple(pgNo * 10 + i, 2));
+            }
+            pages.add(page);
+        }
+        empty.writePages(pages);
+
+        assertEquals(5, empty.numPages());
+        for (Page page : pages) {
+            assertArrayEquals(page.getPageData(), empty.readPage(page.getId()).getPageData());
+        }
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple() and HeapFile.deleteTuple() with the
+     * free-space map
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 505; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+        FreeSpaceMap map = empty.getFreeSpaceMap();
+        assertTrue(map.isFull(0));
+        assertFalse(map.isFull(1));
+        assertEquals(1, map.nextPageWithRoom(0));
+
+        // a slot freed on a full page is reused before the last page
+        empty.deleteTuple(tid, first);
+        assertFalse(map.isFull(0));
+        Tuple refill = Utility.getHeapTuple(1000, 2);
+        empty.insertTuple(tid, refill);
+        assertEquals(0, refill.getRecordId().getPageId().getPageNumber());
+        assertTrue(map.isFull(0));
+
+        // the map survives being written out and loaded again
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < empty.numPages(); ++i) {
+            pages.add(Database.getBufferPool().getPage(tid, new HeapPageId(empty.getId(), i), Permissions.READ_ONLY));
+        }
+        empty.writePages(pages);
+        FreeSpaceMap reloaded = new FreeSpaceMap(empty.getFile());
+        assertTrue(reloaded.isFull(0));
+        assertFalse(reloaded.isFull(1));
+        assertTrue(map.getFile().delete());
+    }
+
+    /**
+     * Unit test for HeapFile.bulkLoad()
+     */
+    @Test public void bulkLoad() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 1100; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(1100, empty.bulkLoad(new TupleIterator(Utility.getTupleDesc(2), tuples)));
+        // 504 tuples fit on a page, and the pages follow the existing empty one
+        assertEquals(4, empty.numPages());
+
+        assertEquals(2, empty.bulkLoad(new StringReader("1100,1\n\n1101,2\n"), ','));
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(count, ((IntField) t.getField(0)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(1102, count);
+
+        // a load that fails part way leaves the file as it was
+        long length = empty.getFile().length();
+        try {
+            empty.bulkLoad(new StringReader("1,1\n2,two\n"), ',');
+            fail("expected exception");
+        } catch (IOException ignored) {
+        }
+        assertEquals(length, empty.getFile().length());
+    }
+
+    /**
+     * Unit test for HeapFile.bulkLoad() when the load fails after some of
+     * its pages were written: scans never see them, not even one the source
+     * runs over the same file, and the file takes inserts as before
+     */
+    @Test public void bulkLoadAbort() throws Exception {
+        // more than a batch of 64 pages, so that some are on disk at the failure
+        final int loaded = 70 * 504;
+        final int numPages = empty.numPages();
+        final long length = empty.getFile().length();
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < loaded + 1; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        final int[] seen = {-1};
+        OpIterator source = new TupleIterator(Utility.getTupleDesc(2), tuples) {
+            private int count;
+
+            @Override public Tuple next() {
+                if (++count > loaded) {
+                    assertTrue(empty.getFile().length() > length);
+                    seen[0] = empty.numPages();
+                    DbFileIterator it = empty.iterator(tid);
+                    try {
+                        it.open();
+                        assertFalse(it.hasNext());
+                        it.close();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    throw new IllegalStateException("source failed");
+                }
+                return super.next();
+            }
+        };
+        try {
+            empty.bulkLoad(source);
+            fail("expected exception");
+        } catch (IllegalStateException ignored) {
+        }
+        assertEquals(numPages, seen[0]);
+        assertEquals(numPages, empty.numPages());
+        assertEquals(length, empty.getFile().length());
+        assertFalse(new File(empty.getFile().getPath() + ".load").exists());
+
+        // new pages start out empty even though the aborted load filled them
+        for (int i = 0; i < 600; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(numPages + 1, empty.numPages());
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(600, count);
+    }
+
+    /**
+     * Unit test for HeapFile constructor: the pages of a bulk load a crash
+     * interrupted are truncated away
+     */
+    @Test public void bulkLoadRecovery() throws Exception {
+        File file = empty.getFile();
+        long length = file.length();
+        File marker = new File(file.getPath() + ".load");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(marker))) {
+            out.writeLong(length);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length + 2L * BufferPool.getPageSize());
+        }
+        HeapFile reopened = new HeapFile(file, empty.getTupleDesc());
+        assertEquals(length, file.length());
+        assertEquals(empty.numPages(), reopened.numPages());
+        assertFalse(marker.exists());
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple() and HeapFile.deleteTuple() with
+     * tuple locking: transactions changing different tuples of a page do
+     * not wait for each other, and an abort only undoes its own changes
+     */
+    @Test(timeout = 10000) public void tupleLocking() throws Exception {
+        BufferPool bufferPool = Database.getBufferPool();
+        LockManager lockManager = bufferPool.getLockManager();
+        bufferPool.setTupleLocking(empty.getId(), true);
+        Tuple[] tuples = new Tuple[3];
+        for (int i = 0; i < tuples.length; ++i) {
+            tuples[i] = Utility.getHeapTuple(i, 2);
+            bufferPool.insertTuple(tid, empty.getId(), tuples[i]);
+        }
+        bufferPool.transactionComplete(tid);
+        PageId pid = tuples[0].getRecordId().getPageId();
+
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bufferPool.deleteTuple(t1, tuples[0]);
+        bufferPool.deleteTuple(t2, tuples[1]);
+        assertEquals(LockManager.LockMode.INTENTION_EXCLUSIVE, lockManager.getLockMode(t1, pid));
+        assertEquals(LockManager.LockMode.EXCLUSIVE, lockManager.getLockMode(t1, tuples[0].getRecordId()));
+        assertTrue(lockManager.holdsLock(t2, tuples[1].getRecordId()));
+
+        // the slot t1 freed stays locked, so t2 does not reuse it
+        Tuple added = Utility.getHeapTuple(10, 2);
+        bufferPool.insertTuple(t2, empty.getId(), added);
+        assertEquals(pid, added.getRecordId().getPageId());
+        assertNotEquals(0, added.getRecordId().getTupleNumber());
+
+        bufferPool.transactionComplete(t1, false);
+        bufferPool.transactionComplete(t2, true);
+
+        Set<Integer> values = new HashSet<>();
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = empty.iterator(reader);
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        bufferPool.transactionComplete(reader);
+        assertEquals(new HashSet<>(Arrays.asList(0, 2, 10)), values);
+
+        // the page on disk holds the same tuples
+        HeapPage onDisk = (HeapPage) empty.readPage(pid);
+        assertEquals(onDisk.getNumSlots() - 3, onDisk.getNumUnusedSlots());
+
+        // slotted pages cannot lock tuples
+        File data = File.createTempFile("slotted", ".dat");
+        data.deleteOnExit();
+        HeapFile slotted = new HeapFile(data, Utility.getTupleDesc(2), HeapFile.PageFormat.SLOTTED);
+        Database.getCatalog().addTable(slotted, SystemTestUtil.getUUID());
+        try {
+            bufferPool.setTupleLocking(slotted.getId(), true);
+            fail("expected exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+        assertFalse(bufferPool.isTupleLocking(slotted.getId()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -102,6 +103,39 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getField()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            assertEquals(EXAMPLE_VALUES[i][0], ((IntField) page.getField(i, 0)).getValue());
+            assertEquals(EXAMPLE_VALUES[i][1], ((IntField) page.getField(i, 1)).getValue());
+        }
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate)
+     */
+    @Test public void testPredicateIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(40000));
+        Iterator<Tuple> it = page.iterator(p);
+
+        int matches = 0;
+        for (int[] values : EXAMPLE_VALUES) {
+            if (values[1] <= 40000)
+                continue;
+            assertTrue(it.hasNext());
+            Tuple tup = it.next();
+            assertEquals(values[0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(values[1], ((IntField) tup.getField(1)).getValue());
+            matches++;
+        }
+        assertFalse(it.hasNext());
+        assertTrue(matches > 0);
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -90,6 +92,28 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage() and HeapPage.getPageBuffer()
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        byte[] committed = page.getPageData();
+        ByteBuffer buffer = page.getPageBuffer();
+        byte[] viewed = new byte[buffer.remaining()];
+        buffer.get(viewed);
+        assertArrayEquals(committed, viewed);
+
+        // after a commit the next modification snapshots the committed page
+        page.setBeforeImage();
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        assertFalse(Arrays.equals(committed, page.getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.deleteTuple() with false tuples
      */
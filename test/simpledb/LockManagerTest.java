@@ -0,0 +1,404 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.DeadlockException;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockManager.DeadlockPolicy;
+import simpledb.transaction.LockManager.LockMode;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class LockManagerTest {
+    private LockManager lm;
+    private PageId p0, p1;
+    private TransactionId tid1, tid2, tid3;
+
+    /** Time to wait before checking that a request is blocked, in ms */
+    private static final int TIMEOUT = 100;
+
+    @Before public void setUp() {
+        lm = new LockManager(10000);
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /**
+     * Acquires a lock in a new thread.
+     */
+    private static class Acquirer extends Thread {
+        final LockManager lm;
+        final TransactionId tid;
+        final PageId pid;
+        final RecordId rid;
+        final LockMode mode;
+        volatile boolean acquired;
+        volatile Exception error;
+
+        Acquirer(LockManager lm, TransactionId tid, PageId pid, LockMode mode) {
+            this(lm, tid, pid, null, mode);
+        }
+
+        Acquirer(LockManager lm, TransactionId tid, RecordId rid, LockMode mode) {
+            this(lm, tid, null, rid, mode);
+        }
+
+        private Acquirer(LockManager lm, TransactionId tid, PageId pid, RecordId rid, LockMode mode) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+            this.rid = rid;
+            this.mode = mode;
+            setDaemon(true);
+            start();
+        }
+
+        @Override public void run() {
+            try {
+                if (rid != null) {
+                    lm.acquire(tid, rid, mode);
+                } else {
+                    lm.acquire(tid, pid, mode);
+                }
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Unit test for LockManager.acquire() with compatible and conflicting modes
+     */
+    @Test public void sharedAndExclusive() throws Exception {
+        lm.acquire(tid1, p0, LockMode.SHARED);
+        lm.acquire(tid2, p0, LockMode.SHARED);
+        lm.acquire(tid3, p1, LockMode.EXCLUSIVE);
+        assertEquals(LockMode.SHARED, lm.getLockMode(tid1, p0));
+        assertTrue(lm.holdsLock(tid2, p0));
+        assertFalse(lm.holdsLock(tid3, p0));
+
+        Acquirer writer = new Acquirer(lm, tid3, p0, LockMode.EXCLUSIVE);
+        Thread.sleep(TIMEOUT);
+        assertFalse(writer.acquired);
+        lm.release(tid1, p0);
+        Thread.sleep(TIMEOUT);
+        assertFalse(writer.acquired);
+        lm.releaseAll(tid2);
+        writer.join(10000);
+        assertTrue(writer.acquired);
+        assertEquals(LockMode.EXCLUSIVE, lm.getLockMode(tid3, p0));
+        assertFalse(lm.holdsLock(tid2, p0));
+    }
+
+    /**
+     * Unit test for LockManager.acquire(): requests are granted in FIFO
+     * order, so readers do not starve a waiting writer
+     */
+    @Test public void fifo() throws Exception {
+        lm.acquire(tid1, p0, LockMode.SHARED);
+        Acquirer writer = new Acquirer(lm, tid2, p0, LockMode.EXCLUSIVE);
+        Thread.sleep(TIMEOUT);
+        Acquirer reader = new Acquirer(lm, tid3, p0, LockMode.SHARED);
+        Thread.sleep(TIMEOUT);
+        assertFalse(writer.acquired);
+        assertFalse(reader.acquired);
+
+        lm.releaseAll(tid1);
+        writer.join(10000);
+        assertTrue(writer.acquired);
+        Thread.sleep(TIMEOUT);
+        assertFalse(reader.acquired);
+
+        lm.releaseAll(tid2);
+        reader.join(10000);
+        assertTrue(reader.acquired);
+    }
+
+    /**
+     * Unit test for LockManager.acquire() upgrading a shared lock
+     */
+    @Test public void upgrade() throws Exception {
+        lm.acquire(tid1, p0, LockMode.SHARED);
+        lm.acquire(tid1, p0, LockMode.EXCLUSIVE);
+        assertEquals(LockMode.EXCLUSIVE, lm.getLockMode(tid1, p0));
+        // asking for less than is held changes nothing
+        lm.acquire(tid1, p0, LockMode.SHARED);
+        assertEquals(LockMode.EXCLUSIVE, lm.getLockMode(tid1, p0));
+        lm.releaseAll(tid1);
+
+        // an upgrade goes ahead of requests that were already waiting
+        lm.acquire(tid1, p1, LockMode.SHARED);
+        lm.acquire(tid2, p1, LockMode.SHARED);
+        Acquirer writer = new Acquirer(lm, tid3, p1, LockMode.EXCLUSIVE);
+        Thread.sleep(TIMEOUT);
+        Acquirer upgrader = new Acquirer(lm, tid1, p1, LockMode.EXCLUSIVE);
+        Thread.sleep(TIMEOUT);
+        assertFalse(upgrader.acquired);
+        lm.releaseAll(tid2);
+        upgrader.join(10000);
+        assertTrue(upgrader.acquired);
+        assertFalse(writer.acquired);
+        lm.releaseAll(tid1);
+        writer.join(10000);
+        assertTrue(writer.acquired);
+    }
+
+    /**
+     * Unit test for LockManager.acquire() timing out
+     */
+    @Test public void timeout() throws Exception {
+        LockManager quick = new LockManager(50);
+        quick.acquire(tid1, p0, LockMode.EXCLUSIVE);
+        try {
+            quick.acquire(tid2, p0, LockMode.SHARED);
+            fail("expected exception");
+        } catch (TransactionAbortedException ignored) {
+        }
+        // the abandoned request does not hold up others
+        quick.releaseAll(tid1);
+        quick.acquire(tid3, p0, LockMode.EXCLUSIVE);
+        assertFalse(quick.holdsLock(tid2, p0));
+    }
+
+    /**
+     * Unit test for LockManager deadlock detection: the youngest transaction
+     * in a cycle is aborted, without waiting for a timeout
+     */
+    @Test public void deadlock() throws Exception {
+        lm.acquire(tid1, p0, LockMode.EXCLUSIVE);
+        lm.acquire(tid2, p1, LockMode.EXCLUSIVE);
+        Acquirer older = new Acquirer(lm, tid1, p1, LockMode.SHARED);
+        Thread.sleep(TIMEOUT);
+        Acquirer younger = new Acquirer(lm, tid2, p0, LockMode.SHARED);
+        younger.join(TIMEOUT);
+        assertTrue(younger.error instanceof DeadlockException);
+        assertFalse(older.acquired);
+        assertEquals(1, lm.getDeadlockCount());
+
+        lm.releaseAll(tid2);
+        older.join(10000);
+        assertTrue(older.acquired);
+        assertNull(older.error);
+    }
+
+    /**
+     * Unit test for LockManager deadlock detection when two transactions
+     * upgrade the same shared lock
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        lm.acquire(tid1, p0, LockMode.SHARED);
+        lm.acquire(tid2, p0, LockMode.SHARED);
+        Acquirer younger = new Acquirer(lm, tid2, p0, LockMode.EXCLUSIVE);
+        Thread.sleep(TIMEOUT);
+        Acquirer older = new Acquirer(lm, tid1, p0, LockMode.EXCLUSIVE);
+        younger.join(TIMEOUT);
+        assertTrue(younger.error instanceof DeadlockException);
+
+        lm.releaseAll(tid2);
+        older.join(10000);
+        assertTrue(older.acquired);
+        assertEquals(LockMode.EXCLUSIVE, lm.getLockMode(tid1, p0));
+    }
+
+    /**
+     * Unit test for LockManager deadlock detection with a cycle of three
+     * transactions, which is not broken until the last one blocks
+     */
+    @Test public void longerDeadlock() throws Exception {
+        PageId p2 = new HeapPageId(1, 2);
+        lm.acquire(tid1, p0, LockMode.EXCLUSIVE);
+        lm.acquire(tid2, p1, LockMode.EXCLUSIVE);
+        lm.acquire(tid3, p2, LockMode.SHARED);
+        Acquirer a3 = new Acquirer(lm, tid3, p0, LockMode.SHARED);
+        Acquirer a1 = new Acquirer(lm, tid1, p1, LockMode.SHARED);
+        Thread.sleep(TIMEOUT);
+        assertNull(a3.error);
+        assertNull(a1.error);
+        assertEquals(0, lm.getDeadlockCount());
+
+        Acquirer a2 = new Acquirer(lm, tid2, p2, LockMode.EXCLUSIVE);
+        a3.join(TIMEOUT * 5);
+        assertTrue(a3.error instanceof DeadlockException);
+        assertNull(a1.error);
+        assertNull(a2.error);
+
+        lm.releaseAll(tid3);
+        a2.join(10000);
+        assertTrue(a2.acquired);
+        lm.releaseAll(tid2);
+        a1.join(10000);
+        assertTrue(a1.acquired);
+    }
+
+    /**
+     * Unit test for LockManager deadlock prevention with wait-die: a
+     * younger transaction aborts rather than wait for an older one
+     */
+    @Test public void waitDie() throws Exception {
+        LockManager waitDie = new LockManager(DeadlockPolicy.WAIT_DIE, 0);
+        waitDie.acquire(tid1, p0, LockMode.EXCLUSIVE);
+        waitDie.acquire(tid2, p1, LockMode.EXCLUSIVE);
+        try {
+            waitDie.acquire(tid2, p0, LockMode.SHARED);
+            fail("expected exception");
+        } catch (DeadlockException ignored) {
+        }
+        assertEquals(1, waitDie.getDeadlockCount());
+
+        Acquirer older = new Acquirer(waitDie, tid1, p1, LockMode.SHARED);
+        Thread.sleep(TIMEOUT);
+        assertFalse(older.acquired);
+        assertNull(older.error);
+        waitDie.releaseAll(tid2);
+        older.join(10000);
+        assertTrue(older.acquired);
+    }
+
+    /**
+     * Unit test for LockManager deadlock prevention with wound-wait: an
+     * older transaction aborts a younger one it waits for
+     */
+    @Test public void woundWait() throws Exception {
+        LockManager woundWait = new LockManager(DeadlockPolicy.WOUND_WAIT, 0);
+        woundWait.acquire(tid1, p1, LockMode.EXCLUSIVE);
+        woundWait.acquire(tid2, p0, LockMode.EXCLUSIVE);
+
+        // a younger transaction waits for an older one
+        Acquirer younger = new Acquirer(woundWait, tid2, p1, LockMode.SHARED);
+        Thread.sleep(TIMEOUT);
+        assertNull(younger.error);
+
+        // the older one wounds it, which aborts its wait
+        Acquirer older = new Acquirer(woundWait, tid1, p0, LockMode.SHARED);
+        younger.join(TIMEOUT * 5);
+        assertTrue(younger.error instanceof DeadlockException);
+        assertEquals(1, woundWait.getDeadlockCount());
+        try {
+            woundWait.acquire(tid2, p0, LockMode.SHARED);
+            fail("expected exception");
+        } catch (DeadlockException ignored) {
+        }
+
+        woundWait.releaseAll(tid2);
+        older.join(10000);
+        assertTrue(older.acquired);
+        assertNull(older.error);
+    }
+
+    /**
+     * Unit test for LockManager.acquire() with WOUND_WAIT: a transaction
+     * wounded while it is running, not waiting, aborts on its next request,
+     * however that races with the wound
+     */
+    @Test public void woundRunning() throws Exception {
+        LockManager woundWait = new LockManager(DeadlockPolicy.WOUND_WAIT, 0);
+        for (int i = 0; i < 200; i++) {
+            TransactionId older = new TransactionId();
+            TransactionId younger = new TransactionId();
+            woundWait.acquire(older, p1, LockMode.EXCLUSIVE);
+            woundWait.acquire(younger, p0, LockMode.EXCLUSIVE);
+
+            Acquirer wounder = new Acquirer(woundWait, older, p0, LockMode.EXCLUSIVE);
+            Acquirer wounded = new Acquirer(woundWait, younger, p1, LockMode.EXCLUSIVE);
+            wounded.join(10000);
+            assertTrue(wounded.error instanceof DeadlockException);
+            woundWait.releaseAll(younger);
+            wounder.join(10000);
+            assertTrue(wounder.acquired);
+            woundWait.releaseAll(older);
+        }
+    }
+
+    /**
+     * Unit test for LockManager.acquire() on tuples: tuple locks take
+     * intention locks on their page, which conflict with page locks
+     */
+    @Test public void tupleLocks() throws Exception {
+        RecordId r0 = new RecordId(p0, 0);
+        RecordId r1 = new RecordId(p0, 1);
+        RecordId r2 = new RecordId(p0, 2);
+        lm.acquire(tid1, r0, LockMode.EXCLUSIVE);
+        lm.acquire(tid2, r1, LockMode.EXCLUSIVE);
+        lm.acquire(tid3, r2, LockMode.SHARED);
+        assertEquals(LockMode.INTENTION_EXCLUSIVE, lm.getLockMode(tid1, p0));
+        assertEquals(LockMode.INTENTION_SHARED, lm.getLockMode(tid3, p0));
+        assertEquals(LockMode.EXCLUSIVE, lm.getLockMode(tid2, r1));
+        assertFalse(lm.tryAcquire(tid3, r0, LockMode.SHARED));
+
+        // a page lock waits for the intention locks that conflict with it
+        TransactionId scanner = new TransactionId();
+        Acquirer scan = new Acquirer(lm, scanner, p0, LockMode.SHARED);
+        Thread.sleep(TIMEOUT);
+        assertFalse(scan.acquired);
+        lm.releaseAll(tid1);
+        lm.releaseAll(tid2);
+        scan.join(10000);
+        assertTrue(scan.acquired);
+
+        // a shared page lock covers the page's tuples in shared mode
+        lm.acquire(scanner, r0, LockMode.SHARED);
+        assertFalse(lm.holdsLock(scanner, r0));
+
+        // and keeps others from changing them
+        Acquirer writer = new Acquirer(lm, tid3, r2, LockMode.EXCLUSIVE);
+        Thread.sleep(TIMEOUT);
+        assertFalse(writer.acquired);
+        lm.releaseAll(scanner);
+        writer.join(10000);
+        assertTrue(writer.acquired);
+        assertEquals(LockMode.INTENTION_EXCLUSIVE, lm.getLockMode(tid3, p0));
+    }
+
+    /**
+     * Unit test for LockManager tuple lock escalation
+     */
+    @Test public void escalation() throws Exception {
+        lm.setEscalationThresholds(3, 5);
+        for (int i = 0; i < 4; i++) {
+            lm.acquire(tid1, new RecordId(p0, i), LockMode.SHARED);
+        }
+        // the fourth lock on the page escalated the first three
+        assertEquals(LockMode.SHARED, lm.getLockMode(tid1, p0));
+        assertFalse(lm.holdsLock(tid1, new RecordId(p0, 0)));
+        lm.acquire(tid1, new RecordId(p0, 5), LockMode.EXCLUSIVE);
+        assertEquals(LockMode.SHARED_INTENTION_EXCLUSIVE, lm.getLockMode(tid1, p0));
+        assertTrue(lm.holdsLock(tid1, new RecordId(p0, 5)));
+
+        // another transaction may still lock other tuples to read
+        lm.acquire(tid2, new RecordId(p0, 6), LockMode.SHARED);
+        assertEquals(LockMode.INTENTION_SHARED, lm.getLockMode(tid2, p0));
+
+        // past the table threshold every page of the table is locked whole
+        PageId p2 = new HeapPageId(1, 2);
+        for (int i = 0; i < 2; i++) {
+            lm.acquire(tid3, new RecordId(p1, i), LockMode.EXCLUSIVE);
+            lm.acquire(tid3, new RecordId(p2, i), LockMode.EXCLUSIVE);
+        }
+        lm.acquire(tid3, new RecordId(p2, 2), LockMode.EXCLUSIVE);
+        assertEquals(LockMode.INTENTION_EXCLUSIVE, lm.getLockMode(tid3, p1));
+        lm.acquire(tid3, new RecordId(p1, 2), LockMode.SHARED);
+        assertEquals(LockMode.EXCLUSIVE, lm.getLockMode(tid3, p1));
+        assertEquals(LockMode.EXCLUSIVE, lm.getLockMode(tid3, p2));
+        assertFalse(lm.holdsLock(tid3, new RecordId(p2, 0)));
+        PageId p3 = new HeapPageId(1, 3);
+        lm.acquire(tid3, new RecordId(p3, 0), LockMode.SHARED);
+        assertEquals(LockMode.SHARED, lm.getLockMode(tid3, p3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,235 @@
+package simpledb;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple makeTuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Short strings take far less room than on a fixed-size page.
+     */
+    @Test public void insertAndRead() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int count = 0;
+        while (page.hasRoomFor(makeTuple(count, "value" + count))) {
+            page.insertTuple(makeTuple(count, "value" + count));
+            count++;
+        }
+        // a fixed-size page holds 30 (int, string) tuples
+        assertTrue(count > 100);
+
+        HeapPage reread = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = reread.iterator();
+        for (int i = 0; i < count; i++) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals("value" + i, ((StringField) t.getField(1)).getValue());
+            assertEquals(i, t.getRecordId().getTupleNumber());
+            assertEquals("value" + i, ((StringField) reread.getField(i, 1)).getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleted slots are reused and their space reclaimed, and the other
+     * tuples keep their slots.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; page.hasRoomFor(makeTuple(i, "xxxxxxxxxxxxxxxx")); i++) {
+            Tuple t = makeTuple(i, "xxxxxxxxxxxxxxxx");
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        assertEquals(0, page.getNumUnusedSlots());
+        try {
+            page.insertTuple(makeTuple(-1, ""));
+            fail("expected exception");
+        } catch (DbException ignored) {
+        }
+
+        // free every other tuple; a longer tuple only fits once the page is compacted
+        for (int i = 0; i < tuples.size(); i += 2) {
+            page.deleteTuple(tuples.get(i));
+        }
+        assertFalse(page.isSlotUsed(0));
+        Tuple big = makeTuple(-1, "a longer string that needs more than one freed slot");
+        assertTrue(page.hasRoomFor(big));
+        page.insertTuple(big);
+        assertEquals(0, big.getRecordId().getTupleNumber());
+
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(big.getField(1), it.next().getField(1));
+        for (int i = 1; i < tuples.size(); i += 2) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.insertTuple() into a given slot, as when
+     * an abort puts a deleted tuple back
+     */
+    @Test public void insertIntoSlot() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Tuple t = makeTuple(i, "value" + i);
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        // deleting the last tuples shrinks the directory
+        page.deleteTuple(tuples.get(4));
+        page.deleteTuple(tuples.get(3));
+        page.deleteTuple(tuples.get(1));
+
+        page.insertTuple(makeTuple(4, "value4"), 4);
+        page.insertTuple(makeTuple(1, "value1"), 1);
+        try {
+            page.insertTuple(makeTuple(-1, ""), 2);
+            fail("expected exception");
+        } catch (DbException ignored) {
+        }
+
+        HeapPage reread = new SlottedHeapPage(pid, page.getPageData());
+        assertFalse(reread.isSlotUsed(3));
+        Iterator<Tuple> it = reread.iterator();
+        for (int i : new int[]{0, 1, 2, 4}) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals("value" + i, ((StringField) t.getField(1)).getValue());
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.insertTuple() into a new slot while the
+     * free space is fragmented: the page is compacted before the directory
+     * grows, and an insert that does not fit leaves the page as it was
+     */
+    @Test public void insertIntoNewSlotWhenFragmented() throws Exception {
+        BufferPool.setPageSize(128);
+        try {
+            // 4 + 3 * 4 bytes of header and directory, and 38 + 38 + 36 bytes of records
+            SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+            Tuple first = makeTuple(0, "123456789012345678901234567890");
+            page.insertTuple(first);
+            page.insertTuple(makeTuple(1, "123456789012345678901234567890"));
+            // the last record, which a directory entry added before compacting
+            // would overlay, reads as a record of 16 + 32767 bytes
+            page.insertTuple(makeTuple(0x00107FFF, "1234567890123456789012345678"));
+            assertFalse(page.hasRoomFor(makeTuple(3, "")));
+
+            // the only free space is where the first record was
+            page.deleteTuple(first);
+            byte[] before = page.getPageData();
+            try {
+                page.insertTuple(makeTuple(-1, "12345678901234567890123456789"), 3);
+                fail("expected exception");
+            } catch (DbException ignored) {
+            }
+            assertArrayEquals(before, page.getPageData());
+            page.insertTuple(makeTuple(3, "1234567890"), 3);
+
+            HeapPage reread = new SlottedHeapPage(pid, page.getPageData());
+            assertFalse(reread.isSlotUsed(0));
+            Iterator<Tuple> it = reread.iterator();
+            int[] values = {1, 0x00107FFF, 3};
+            for (int i = 1; i <= 3; i++) {
+                Tuple t = it.next();
+                assertEquals(values[i - 1], ((IntField) t.getField(0)).getValue());
+                assertEquals(i, t.getRecordId().getTupleNumber());
+            }
+            assertFalse(it.hasNext());
+        } finally {
+            BufferPool.resetPageSize();
+        }
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert() and HeapFile with slotted pages
+     */
+    @Test public void slottedHeapFile() throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < 1000; i++) {
+                bw.write(i + ",s" + i + "\n");
+            }
+        }
+        File data = File.createTempFile("slotted", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2,
+                new Type[]{Type.INT_TYPE, Type.STRING_TYPE}, ',', HeapFile.PageFormat.SLOTTED);
+
+        HeapFile hf = new HeapFile(data, td, HeapFile.PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        // a fixed-size file would need 34 pages
+        assertTrue(hf.numPages() <= 5);
+
+        TransactionId tid = new TransactionId();
+        Tuple extra = makeTuple(1000, "s1000");
+        hf.insertTuple(tid, extra);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals("s" + ((IntField) t.getField(0)).getValue(), ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(1001, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}